@@ -56,6 +56,11 @@ class MainActivity : AppCompatActivity(), SheetsHelperView {
         }
     }
 
+    override fun onDestroy() {
+        helper.destroy()
+        super.onDestroy()
+    }
+
     override fun onRestoreInstanceState(savedInstanceState: Bundle) {
         super.onRestoreInstanceState(savedInstanceState)
         helper.onInstanceStateRestored()
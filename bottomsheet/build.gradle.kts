@@ -36,6 +36,7 @@ android {
     sourceSets {
         getByName("main").java.srcDirs("src/main/kotlin")
         getByName("test").java.srcDirs("src/test/kotlin")
+        getByName("androidTest").java.srcDirs("src/androidTest/kotlin")
     }
 
     compileOptions {
@@ -53,6 +54,10 @@ dependencies {
     implementation(Dependencies.Kotlin.stdlibJdk)
     implementation(Dependencies.Android.appCompat)
     implementation(Dependencies.Android.materialDesign)
+
+    testImplementation(Dependencies.Test.junit)
+    androidTestImplementation(Dependencies.Test.runner)
+    androidTestImplementation(Dependencies.Test.extJunit)
 }
 
 val dokka by tasks.getting(DokkaTask::class) {
@@ -0,0 +1,140 @@
+package cz.eman.bottomsheet.core
+
+import android.os.SystemClock
+import android.util.Log
+import android.view.MotionEvent
+import android.view.View
+import android.widget.FrameLayout
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Feeds the same drag gesture through [SheetDragHelper] and the deprecated [ViewDragHelper] of version 1.0.0
+ * it replaced and compares average cost of one touch event. Results are logged with tag [TAG].
+ *
+ * @author eMan s.r.o.
+ */
+@Suppress("DEPRECATION")
+@RunWith(AndroidJUnit4::class)
+class DragHelperBenchmark {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val events = ArrayList<MotionEvent>(MOVE_EVENTS + 2)
+
+    private lateinit var parent: FrameLayout
+    private lateinit var sheet: View
+
+    @Before
+    fun setUp() {
+        val context = instrumentation.targetContext
+        parent = FrameLayout(context)
+        sheet = View(context)
+        parent.addView(sheet)
+        parent.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT)
+        sheet.layout(0, SHEET_TOP, PARENT_WIDTH, PARENT_HEIGHT)
+
+        // Finger goes down on the sheet and drags it up by a few pixels every 8 ms
+        val downTime = SystemClock.uptimeMillis()
+        var y = DOWN_Y
+        events.add(MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, DOWN_X, y, 0))
+        for (i in 1..MOVE_EVENTS) {
+            y -= MOVE_STEP
+            events.add(MotionEvent.obtain(downTime, downTime + i * EVENT_INTERVAL_MS, MotionEvent.ACTION_MOVE, DOWN_X, y, 0))
+        }
+        events.add(MotionEvent.obtain(downTime, downTime + (MOVE_EVENTS + 1) * EVENT_INTERVAL_MS, MotionEvent.ACTION_UP, DOWN_X, y, 0))
+    }
+
+    @After
+    fun tearDown() {
+        events.forEach { it.recycle() }
+        events.clear()
+    }
+
+    @Test
+    fun sheetDragHelperIsCheaperThanViewDragHelper() {
+        var sheetCost = 0.0
+        var genericCost = 0.0
+        instrumentation.runOnMainSync {
+            val sheetHelper = SheetDragHelper(parent, SheetCallback())
+            val genericHelper = ViewDragHelper.create(parent, GenericCallback())
+
+            sheetCost = measure {
+                feed { ev ->
+                    sheetHelper.shouldInterceptTouchEvent(ev)
+                    sheetHelper.processTouchEvent(ev)
+                }
+            }
+            genericCost = measure {
+                feed { ev ->
+                    genericHelper.shouldInterceptTouchEvent(ev)
+                    genericHelper.processTouchEvent(ev)
+                }
+            }
+        }
+
+        Log.i(
+            TAG,
+            "SheetDragHelper: %.0f ns/event, ViewDragHelper: %.0f ns/event, reduction %.0f %%"
+                .format(sheetCost, genericCost, 100 * (1 - sheetCost / genericCost))
+        )
+        assertTrue(
+            "SheetDragHelper costs $sheetCost ns per event, ViewDragHelper $genericCost ns",
+            sheetCost < genericCost
+        )
+    }
+
+    /**
+     * @return average cost of one event in ns
+     */
+    private fun measure(gesture: () -> Unit): Double {
+        repeat(WARM_UP_GESTURES) { gesture() }
+        val start = SystemClock.elapsedRealtimeNanos()
+        repeat(MEASURED_GESTURES) { gesture() }
+        val elapsed = SystemClock.elapsedRealtimeNanos() - start
+        return elapsed.toDouble() / (MEASURED_GESTURES * events.size)
+    }
+
+    /**
+     * Feeds whole gesture to the helper and moves the sheet back, so every gesture starts at the same place.
+     */
+    private inline fun feed(helper: (MotionEvent) -> Unit) {
+        for (i in events.indices) {
+            helper(events[i])
+        }
+        sheet.offsetTopAndBottom(SHEET_TOP - sheet.top)
+    }
+
+    private inner class SheetCallback : SheetDragHelper.Callback() {
+        override fun tryCaptureView(child: View, pointerId: Int): Boolean = child === sheet
+        override fun clampViewPositionVertical(child: View, top: Int, dy: Int): Int = top
+        override fun getViewVerticalDragRange(child: View): Int = PARENT_HEIGHT
+    }
+
+    private inner class GenericCallback : ViewDragHelper.Callback() {
+        override fun tryCaptureView(child: View, pointerId: Int): Boolean = child === sheet
+        override fun clampViewPositionVertical(child: View, top: Int, dy: Int): Int = top
+        override fun getViewVerticalDragRange(child: View): Int = PARENT_HEIGHT
+    }
+
+    companion object {
+        private const val TAG = "DragHelperBenchmark"
+
+        private const val PARENT_WIDTH = 1080
+        private const val PARENT_HEIGHT = 1920
+        private const val SHEET_TOP = 1200
+
+        private const val DOWN_X = 540f
+        private const val DOWN_Y = 1500f
+        private const val MOVE_STEP = 4f // px
+        private const val MOVE_EVENTS = 100
+        private const val EVENT_INTERVAL_MS = 8L
+
+        private const val WARM_UP_GESTURES = 200
+        private const val MEASURED_GESTURES = 1000
+    }
+}
@@ -0,0 +1,159 @@
+package cz.eman.bottomsheet.core
+
+import android.os.Debug
+import android.os.SystemClock
+import android.view.Choreographer
+import android.view.MotionEvent
+import android.widget.FrameLayout
+import androidx.coordinatorlayout.widget.CoordinatorLayout
+import androidx.test.core.app.ActivityScenario
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import cz.eman.bottomsheet.test.R
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Drags a laid out sheet up, releases it and runs its whole settle the way [CoordinatorLayout] and
+ * [SettleFrameDriver] would, counting objects allocated by the main thread meanwhile. Frames are stepped
+ * by the test, every step runs as a separate message of the main thread so callbacks posted by the settle
+ * are delivered between frames as they are on a device.
+ *
+ * @author eMan s.r.o.
+ */
+@Suppress("DEPRECATION")
+@RunWith(AndroidJUnit4::class)
+class ReleaseAllocationTest {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val events = ArrayList<MotionEvent>(MOVE_EVENTS + 2)
+
+    private lateinit var scenario: ActivityScenario<SheetTestActivity>
+    private lateinit var parent: CoordinatorLayout
+    private lateinit var sheet: FrameLayout
+    private lateinit var behavior: BottomSheetTwoStatesBehavior<FrameLayout>
+    private lateinit var originalScheduler: (Choreographer.FrameCallback) -> Unit
+
+    @Volatile
+    private var scheduledFrames = 0
+    private var frameTime = 0L
+    // Objects allocated by the main thread within counted steps
+    private var allocations = 0
+    private var counting = false
+
+    private val scheduler: (Choreographer.FrameCallback) -> Unit = { scheduledFrames++ }
+
+    @Before
+    fun setUp() {
+        scenario = ActivityScenario.launch(SheetTestActivity::class.java)
+        instrumentation.waitForIdleSync()
+        scenario.onActivity {
+            parent = it.findViewById(R.id.coordinatorLayout)
+            sheet = it.findViewById(R.id.bottomSheet)
+            behavior = BottomSheetTwoStatesBehavior.from(sheet)
+            originalScheduler = SettleFrameDriver.frameScheduler
+            SettleFrameDriver.frameScheduler = scheduler
+        }
+        frameTime = System.nanoTime()
+
+        // Finger goes down on the collapsed sheet and drags it quickly up
+        val downTime = SystemClock.uptimeMillis()
+        val x = parent.width / 2f
+        var y = parent.height - behavior.getPeekHeight() / 2f
+        events.add(MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0))
+        for (i in 1..MOVE_EVENTS) {
+            y -= MOVE_STEP
+            events.add(MotionEvent.obtain(downTime, downTime + i * EVENT_INTERVAL_MS, MotionEvent.ACTION_MOVE, x, y, 0))
+        }
+        events.add(MotionEvent.obtain(downTime, downTime + (MOVE_EVENTS + 1) * EVENT_INTERVAL_MS, MotionEvent.ACTION_UP, x, y, 0))
+    }
+
+    @After
+    fun tearDown() {
+        instrumentation.runOnMainSync { SettleFrameDriver.frameScheduler = originalScheduler }
+        scenario.close()
+        events.forEach { it.recycle() }
+        events.clear()
+    }
+
+    @Test
+    fun releaseAndSettleDoNotAllocate() {
+        // Velocity tracker, lazily loaded classes and the frame driver are created by the first gestures
+        repeat(WARM_UP_GESTURES) { dragAndSettle() }
+
+        Debug.startAllocCounting()
+        counting = true
+        dragAndSettle()
+        counting = false
+        Debug.stopAllocCounting()
+
+        assertEquals(BottomSheetState.STATE_EXPANDED, behavior.getState())
+        assertEquals("Objects allocated by release and settle of the sheet", 0, allocations)
+    }
+
+    /**
+     * Collapses the sheet, drags it up and runs frames until it settles expanded
+     */
+    private fun dragAndSettle() {
+        instrumentation.runOnMainSync { behavior.setState(BottomSheetState.STATE_COLLAPSED) }
+        runFrames()
+
+        step { drag() }
+        runFrames()
+    }
+
+    /**
+     * Delivers the gesture to the behavior the way [CoordinatorLayout] does, events go to
+     * [BottomSheetTwoStatesBehavior.onTouchEvent] once the behavior intercepts them
+     */
+    private fun drag() {
+        var intercepted = false
+        for (i in events.indices) {
+            val event = events[i]
+            if (intercepted) {
+                behavior.onTouchEvent(parent, sheet, event)
+            } else {
+                intercepted = behavior.onInterceptTouchEvent(parent, sheet, event)
+            }
+        }
+    }
+
+    private fun runFrames() {
+        var frames = 0
+        while (scheduledFrames > 0 && frames++ < MAX_FRAMES) {
+            step {
+                scheduledFrames--
+                frameTime += FRAME_INTERVAL_NANOS
+                SettleFrameDriver.doFrame(frameTime)
+            }
+        }
+    }
+
+    /**
+     * Runs given block on the main thread and counts objects it allocates while counting is on
+     */
+    private fun step(block: () -> Unit) {
+        instrumentation.runOnMainSync {
+            if (counting) {
+                Debug.resetThreadAllocCount()
+                block()
+                allocations += Debug.getThreadAllocCount()
+            } else {
+                block()
+            }
+        }
+    }
+
+    companion object {
+        private const val MOVE_EVENTS = 30
+        private const val MOVE_STEP = 20f // px
+        private const val EVENT_INTERVAL_MS = 8L
+
+        private const val FRAME_INTERVAL_NANOS = 16_666_667L
+        private const val MAX_FRAMES = 600
+        private const val WARM_UP_GESTURES = 5
+    }
+}
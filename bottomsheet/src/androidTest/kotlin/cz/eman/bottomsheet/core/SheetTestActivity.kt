@@ -0,0 +1,18 @@
+package cz.eman.bottomsheet.core
+
+import android.app.Activity
+import android.os.Bundle
+import cz.eman.bottomsheet.test.R
+
+/**
+ * Hosts a single sheet with [BottomSheetTwoStatesBehavior] for instrumentation tests.
+ *
+ * @author eMan s.r.o.
+ */
+class SheetTestActivity : Activity() {
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        setContentView(R.layout.activity_sheet_test)
+    }
+}
@@ -0,0 +1,101 @@
+package cz.eman.bottomsheet.core
+
+import android.view.Choreographer
+import android.widget.FrameLayout
+import androidx.coordinatorlayout.widget.CoordinatorLayout
+import androidx.test.core.app.ActivityScenario
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import cz.eman.bottomsheet.test.R
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Settles a sheet which is half as tall as its parent. Collapsed positions are peek heights above the bottom
+ * of the parent, the same place the sheet is laid out at when it is collapsed.
+ *
+ * @author eMan s.r.o.
+ */
+@RunWith(AndroidJUnit4::class)
+class ShortSheetSettleTest {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+
+    private lateinit var scenario: ActivityScenario<SheetTestActivity>
+    private lateinit var parent: CoordinatorLayout
+    private lateinit var sheet: FrameLayout
+    private lateinit var behavior: BottomSheetTwoStatesBehavior<FrameLayout>
+    private lateinit var originalScheduler: (Choreographer.FrameCallback) -> Unit
+
+    @Volatile
+    private var scheduledFrames = 0
+    private var frameTime = 0L
+
+    private val scheduler: (Choreographer.FrameCallback) -> Unit = { scheduledFrames++ }
+
+    @Before
+    fun setUp() {
+        scenario = ActivityScenario.launch(SheetTestActivity::class.java)
+        instrumentation.waitForIdleSync()
+        scenario.onActivity {
+            parent = it.findViewById(R.id.coordinatorLayout)
+            sheet = it.findViewById(R.id.bottomSheet)
+            behavior = BottomSheetTwoStatesBehavior.from(sheet)
+            originalScheduler = SettleFrameDriver.frameScheduler
+            SettleFrameDriver.frameScheduler = scheduler
+
+            sheet.layoutParams.height = parent.height / 2
+            sheet.requestLayout()
+        }
+        instrumentation.waitForIdleSync()
+        frameTime = System.nanoTime()
+    }
+
+    @After
+    fun tearDown() {
+        instrumentation.runOnMainSync { SettleFrameDriver.frameScheduler = originalScheduler }
+        scenario.close()
+    }
+
+    @Test
+    fun collapsedPositionsAreMeasuredFromBottomOfParent() {
+        val sheetHeight = parent.height / 2
+        val smaller = sheetHeight / 4
+        val bigger = sheetHeight / 2
+        instrumentation.runOnMainSync { behavior.setPeekHeights(smaller, bigger, false) }
+        instrumentation.waitForIdleSync()
+        assertEquals(sheetHeight, sheet.height)
+        assertEquals(parent.height - smaller, sheet.top)
+
+        settleTo(BottomSheetState.STATE_EXPANDED)
+        assertEquals(parent.height - sheetHeight, sheet.top)
+
+        // Collapsing settles at the bigger peek height first and at the smaller one when collapsed again
+        settleTo(BottomSheetState.STATE_COLLAPSED)
+        assertEquals(parent.height - bigger, sheet.top)
+
+        settleTo(BottomSheetState.STATE_COLLAPSED)
+        assertEquals(parent.height - smaller, sheet.top)
+    }
+
+    private fun settleTo(state: BottomSheetState) {
+        instrumentation.runOnMainSync { behavior.setState(state) }
+        var frames = 0
+        while (scheduledFrames > 0 && frames++ < MAX_FRAMES) {
+            instrumentation.runOnMainSync {
+                scheduledFrames--
+                frameTime += FRAME_INTERVAL_NANOS
+                SettleFrameDriver.doFrame(frameTime)
+            }
+        }
+        assertEquals(state, behavior.getState())
+    }
+
+    companion object {
+        private const val FRAME_INTERVAL_NANOS = 16_666_667L
+        private const val MAX_FRAMES = 600
+    }
+}
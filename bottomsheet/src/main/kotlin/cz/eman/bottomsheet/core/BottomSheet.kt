@@ -35,6 +35,21 @@ interface BottomSheet {
      */
     fun setPeekHeights(smaller: Int, bigger: Int, affectInitHeight: Boolean)
 
+    /**
+     * Sets up any number of peek heights, sheet can be collapsed to each of them
+     *
+     * @param heights          heights in px, in any order
+     * @param affectInitHeight true when initial height of bottom sheet should be affected
+     * @since 1.1.0
+     */
+    fun setPeekHeights(heights: IntArray, affectInitHeight: Boolean)
+
+    /**
+     * @return copy of all peek heights sorted from the smallest one
+     * @since 1.1.0
+     */
+    fun getPeekHeights(): IntArray
+
     /**
      * Sets up initial height of bottom sheet, pass just values that are equal to one of peek heights
      * of UI might get laggy
@@ -45,12 +60,28 @@ interface BottomSheet {
     fun setInitialHeight(height: Int)
 
     /**
-     * Sets callback for bottom sheet which reports sheet sliding and state changes
+     * Sets callback for bottom sheet which reports sheet sliding and state changes. Replaces only callback
+     * previously set by this method, callbacks added by [addBottomSheetCallback] are kept.
      * @param callback callback
      * @since 1.0.0
      */
     fun setBottomSheetCallback(callback: BottomSheetCallback?)
 
+    /**
+     * Adds callback which reports sheet sliding and state changes. Callbacks may be added or removed
+     * from within a callback, change takes effect from the next event.
+     * @param callback callback
+     * @since 1.1.0
+     */
+    fun addBottomSheetCallback(callback: BottomSheetCallback)
+
+    /**
+     * Removes callback previously added by [addBottomSheetCallback]
+     * @param callback callback
+     * @since 1.1.0
+     */
+    fun removeBottomSheetCallback(callback: BottomSheetCallback)
+
     /**
      * Sets if sheet can be hidden = it can go lower than smallest of peek heights
      * @param hideable true if it should be hideable
@@ -88,6 +119,16 @@ interface BottomSheet {
      */
     fun animateAndSetHeights(pixels: Int, collapsedHeight: Int, semiCollapsedHeight: Int)
 
+    /**
+     * Animates sheet to given height. After animation is done, visible part of the sheet
+     * will be equal to height passed as parameter.
+     *
+     * @param pixels target height, one of heights
+     * @param heights new peek heights for sheet, in any order
+     * @since 1.1.0
+     */
+    fun animateAndSetHeights(pixels: Int, heights: IntArray)
+
     /**
      * Automatically selects initial height for sheet. This method takes to account just currently
      * set peek heights and selects best for current sheet state.
@@ -14,6 +14,7 @@ class SavedState : AbsSavedState {
     internal val peekHeightBig: Int
     internal val peekHeightSmall: Int
     internal val peekHeight: Int
+    internal val peekHeights: IntArray
 
     @JvmOverloads
     constructor(source: Parcel, loader: ClassLoader? = null) : super(source, loader) {
@@ -22,6 +23,7 @@ class SavedState : AbsSavedState {
         peekHeightBig = source.readInt()
         peekHeightSmall = source.readInt()
         peekHeight = source.readInt()
+        peekHeights = source.createIntArray() ?: IntArray(0)
     }
 
     constructor(superState: Parcelable, state: BottomSheetState, peekBig: Int, peekSmall: Int, peek: Int) : super(superState) {
@@ -29,6 +31,15 @@ class SavedState : AbsSavedState {
         this.peekHeightBig = peekBig
         this.peekHeightSmall = peekSmall
         this.peekHeight = peek
+        this.peekHeights = IntArray(0)
+    }
+
+    constructor(superState: Parcelable, state: BottomSheetState, peekHeights: IntArray, peek: Int) : super(superState) {
+        this.state = state
+        this.peekHeightBig = peekHeights.lastOrNull() ?: 0
+        this.peekHeightSmall = peekHeights.firstOrNull() ?: 0
+        this.peekHeight = peek
+        this.peekHeights = peekHeights
     }
 
     override fun writeToParcel(out: Parcel, flags: Int) {
@@ -37,6 +48,7 @@ class SavedState : AbsSavedState {
         out.writeInt(peekHeightBig)
         out.writeInt(peekHeightSmall)
         out.writeInt(peekHeight)
+        out.writeIntArray(peekHeights)
     }
 
     companion object {
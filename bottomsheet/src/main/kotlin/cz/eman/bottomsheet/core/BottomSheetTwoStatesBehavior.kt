@@ -23,13 +23,19 @@ import android.view.MotionEvent
 import android.view.VelocityTracker
 import android.view.View
 import android.view.ViewConfiguration
+import android.view.ViewTreeObserver
+import android.view.animation.AnimationUtils
+import androidx.annotation.VisibleForTesting
 import androidx.coordinatorlayout.widget.CoordinatorLayout
 import androidx.core.view.ViewCompat
 import cz.eman.bottomsheet.R
 import cz.eman.bottomsheet.utils.findFirstScrollingChild
+import cz.eman.bottomsheet.utils.isDescendantOf
 import java.lang.ref.WeakReference
 import kotlin.math.abs
 import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
 
 
 /**
@@ -54,15 +60,33 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
     private var peekHeight: Int = 0
     private var peekHeightSmall: Int = 0
     private var peekHeightBig: Int = 0
+    // All collapsed heights sorted from the smallest one, first and last are also kept as small and big
+    private var peekHeights: IntArray = NO_PEEK_HEIGHTS
     private var peekHeightAuto: Boolean = false
 
     private var minOffset: Int = 0
     private var maxOffset: Int = 0
+    private val detents = DetentIndex()
     private var initialHeight: Int = 0
 
     private var initialY: Int = 0
     private var parentHeight: Int = 0
 
+    // Inputs of the last full layout of the sheet, layout is skipped when none of them changes
+    private var layoutParentWidth: Int = -1
+    private var layoutParentHeight: Int = -1
+    private var layoutPeekHeight: Int = -1
+    private var layoutInitialHeight: Int = -1
+    private var layoutHideable: Boolean = false
+    private var layoutState: BottomSheetState? = null
+
+    /**
+     * Number of layouts which skipped positioning of the sheet because its geometry did not change
+     */
+    @VisibleForTesting
+    internal var skippedLayoutCount: Int = 0
+        private set
+
     private var hideable: Boolean = false
     private var dragEnabled: Boolean = false
     private var ignoreEvents: Boolean = false
@@ -72,21 +96,63 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
 
     private var lastNestedScrollDy: Int = 0
     private var nestedScrolled: Boolean = false
+    // Velocity of the sheet released by nested scroll in px/s, positive when moving down. Touch events are
+    // not delivered to the behavior while the child scrolls, so it is taken from the pre-fling of the child.
+    private var nestedReleaseVelocity: Float = 0f
+
+    // Fling of the nested scrolling child carries its momentum into the sheet and back
+    private var momentumHandOff: Boolean = false
+    // True while a fling of the nested scrolling child is accepted and not handed off yet
+    private var nestedFling: Boolean = false
+    private var lastFlingDy: Int = 0
+    private var lastFlingTime: Long = 0
+    // Velocity of the fling in px/s, positive when the sheet would move down
+    private var flingVelocity: Float = 0f
+
+    // Result of the last release decision, kept in primitive fields so releasing the sheet does not allocate
+    private var releaseTop: Int = 0
+    private var releaseState = BottomSheetState.STATE_COLLAPSED
 
     private var activePointerId: Int = 0
     private var velocityTracker: VelocityTracker? = null
+    // Callback of setBottomSheetCallback, kept apart so it never replaces an added one
     private var callback: BottomSheetCallback? = null
-    private var viewDragHelper: ViewDragHelper? = null
+    // Snapshot of registered callbacks, replaced on every change so it can be iterated without allocation
+    private var callbacks: Array<BottomSheetCallback> = NO_CALLBACKS
+    private var viewDragHelper: SheetDragHelper? = null
+    private var settleEngine: SettleEngine = ScrollerSettleEngine()
 
     private var viewRef: WeakReference<V>? = null
     private var nestedScrollingChildRef: WeakReference<View>? = null
+    // True when nested scrolling child was set explicitly or looked up and the sheet did not change since
+    private var nestedScrollingChildResolved: Boolean = false
+    private var nestedScrollingChildDeclared: Boolean = false
+
+    private val settleAnimation = SettleAnimation()
+    // Sheet stays laid out expanded and its position is kept in translation
+    private var positionByTranslation: Boolean = false
+    // Input of a captured sheet is delivered unbatched, see setLowLatencyInput
+    private var lowLatencyInput: Boolean = false
+    private var touchPrediction: Boolean = false
+    private var unbufferedDispatchRequested: Boolean = false
+    private val pendingTransition = PendingTransition()
+
+    // Slide events coalesced to one per frame, delivered before the frame is drawn
+    private var coalesceSlideEvents: Boolean = false
+    private var pendingSlideTop: Int = NO_PENDING_SLIDE
+    private var slideObserver: ViewTreeObserver? = null
+    private val slidePreDrawListener = ViewTreeObserver.OnPreDrawListener {
+        dispatchPendingSlide()
+        true
+    }
 
-    private val maximumVelocity: Float
-    private val yVelocity: Float
-        get() {
-            velocityTracker?.computeCurrentVelocity(1000, maximumVelocity)
-            return velocityTracker?.getXVelocity(activePointerId) ?: 0f
+    private val trimMemoryClient = object : TrimMemoryRegistry.Client {
+        override fun trimMemory(level: Int) {
+            releaseIdleResources()
         }
+    }
+
+    private val maximumVelocity: Float
 
     init {
         val attr = context.obtainStyledAttributes(attrs, R.styleable.BottomSheetBehavior_Layout)
@@ -114,9 +180,10 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         val configuration = ViewConfiguration.get(context)
         maximumVelocity = configuration.scaledMaximumFlingVelocity.toFloat()
         dragEnabled = true
+        TrimMemoryRegistry.register(context, trimMemoryClient)
     }
 
-    private val mDragCallback = object : ViewDragHelper.Callback() {
+    private val mDragCallback = object : SheetDragHelper.Callback() {
 
         override fun tryCaptureView(child: View, pointerId: Int): Boolean {
             if (state === BottomSheetState.STATE_DRAGGING) {
@@ -135,50 +202,34 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             return viewRef != null && viewRef!!.get() === child
         }
 
-        override fun onViewPositionChanged(
-            changedView: View,
-            left: Int,
-            top: Int,
-            dx: Int,
-            dy: Int
-        ) {
+        override fun onViewPositionChanged(changedView: View, top: Int, dy: Int) {
             dispatchOnSlide(top)
         }
 
         override fun onViewDragStateChanged(state: Int) {
-            if (state == ViewDragHelper.STATE_DRAGGING) {
+            if (state == SheetDragHelper.STATE_DRAGGING) {
                 setStateInternal(BottomSheetState.STATE_DRAGGING)
             }
         }
 
-        override fun onViewReleased(releasedChild: View, xvel: Float, yvel: Float) {
-            val pxFromBottom = releasedChild.height - releasedChild.top
+        override fun onViewReleased(releasedChild: View, yvel: Float) {
+            val top = getSheetTop(releasedChild)
 
-            val viewDragReleasedState = if (yvel < 0) {
-                onDragReleaseMovingUp(releasedChild, pxFromBottom)
+            if (yvel < 0) {
+                setRelease(detents.floor(top))
             } else if (shouldHide(releasedChild, yvel) && hideable) {
-                ViewDragReleasedState(
-                    top = parentHeight,
-                    targetState = BottomSheetState.STATE_HIDDEN
-                )
+                setRelease(parentHeight, BottomSheetState.STATE_HIDDEN)
             } else if (yvel == 0f) {
-                onNoDragRelease(releasedChild, pxFromBottom)
+                setRelease(detents.nearest(top))
             } else {
-                onDragReleaseMovingDown(releasedChild, pxFromBottom)
+                setRelease(detents.ceiling(top))
             }
 
-            if (viewDragHelper!!.settleCapturedViewAt(
-                    releasedChild.left,
-                    viewDragReleasedState.top
-                )
-            ) {
+            if (viewDragHelper!!.settleCapturedViewAt(releaseTop)) {
                 setStateInternal(BottomSheetState.STATE_SETTLING)
-                ViewCompat.postOnAnimation(
-                    releasedChild,
-                    SettleRunnable(releasedChild, viewDragReleasedState.targetState)
-                )
+                settleAnimation.start(releaseState)
             } else {
-                setStateInternal(viewDragReleasedState.targetState)
+                setStateInternal(releaseState)
             }
         }
 
@@ -192,10 +243,6 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             }
         }
 
-        override fun clampViewPositionHorizontal(child: View, left: Int, dx: Int): Int {
-            return child.left
-        }
-
         override fun getViewVerticalDragRange(child: View): Int {
             return if (hideable) {
                 parentHeight - minOffset
@@ -207,7 +254,7 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
 
     override fun onSaveInstanceState(parent: CoordinatorLayout, child: V): Parcelable? {
         super.onSaveInstanceState(parent, child)?.run {
-            return SavedState(this, state, peekHeightBig, peekHeightSmall, initialHeight)
+            return SavedState(this, state, peekHeights, initialHeight)
         }
         return null
     }
@@ -225,9 +272,12 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             savedState.state
         }
 
-        peekHeightBig = savedState.peekHeightBig
-        peekHeightSmall = savedState.peekHeightSmall
-        peekHeight = savedState.peekHeightSmall
+        if (savedState.peekHeights.isNotEmpty()) {
+            peekHeights = savedState.peekHeights
+            peekHeightSmall = peekHeights.first()
+            peekHeightBig = peekHeights.last()
+            peekHeight = peekHeightSmall
+        }
         initialHeight = savedState.peekHeight
     }
 
@@ -236,7 +286,15 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             child.fitsSystemWindows = true
         }
 
-        val savedTop = child.top
+        // Content of the sheet could change only if the sheet requested layout
+        val sheetLayoutRequested = child.isLayoutRequested
+        if (!sheetLayoutRequested && viewRef?.get() === child && isLayoutUnchanged(parent, child)) {
+            // Sheet is already laid out and positioned for current geometry, e.g. only its sibling changed
+            skippedLayoutCount++
+            return true
+        }
+
+        val savedTop = getSheetTop(child)
         // First let the parent lay it out
         parent.onLayoutChild(child, layoutDirection)
         // Offset the bottom sheet
@@ -254,27 +312,71 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         }
         minOffset = max(0, parentHeight - child.height)
         maxOffset = max(parentHeight - peekHeight, minOffset)
+        updateDetents()
 
         if (state === BottomSheetState.STATE_EXPANDED) {
-            ViewCompat.offsetTopAndBottom(child, minOffset)
+            placeSheet(child, minOffset)
         } else if (hideable && state === BottomSheetState.STATE_HIDDEN) {
-            ViewCompat.offsetTopAndBottom(child, parentHeight)
+            placeSheet(child, parentHeight)
         } else if (state === BottomSheetState.STATE_COLLAPSED) {
-            ViewCompat.offsetTopAndBottom(
-                child,
-                if (initialHeight == 0) maxOffset else parentHeight - initialHeight
-            )
+            placeSheet(child, if (initialHeight == 0) maxOffset else parentHeight - initialHeight)
         } else if (state === BottomSheetState.STATE_DRAGGING || state === BottomSheetState.STATE_SETTLING) {
-            ViewCompat.offsetTopAndBottom(child, savedTop - child.top)
+            placeSheet(child, savedTop)
+        } else if (positionByTranslation) {
+            placeSheet(child, savedTop)
         }
         if (viewDragHelper == null) {
-            viewDragHelper = ViewDragHelper.create(parent, mDragCallback)
+            viewDragHelper = SheetDragHelper(parent, mDragCallback)
+            viewDragHelper!!.setSettleEngine(settleEngine)
+            viewDragHelper!!.setMoveByTranslation(positionByTranslation)
+            viewDragHelper!!.setVelocityTracker(velocityTracker)
+            viewDragHelper!!.setTouchPrediction(touchPrediction)
+        }
+        if (viewRef?.get() !== child) {
+            viewRef = WeakReference(child)
         }
-        viewRef = WeakReference(child)
-        nestedScrollingChildRef = WeakReference<View>(child.findFirstScrollingChild())
+        resolveNestedScrollingChild(child, sheetLayoutRequested)
+        updateSlideObserver(child)
+
+        layoutParentWidth = parent.width
+        layoutParentHeight = parentHeight
+        layoutPeekHeight = getPeekHeight()
+        layoutInitialHeight = initialHeight
+        layoutHideable = hideable
+        layoutState = state
         return true
     }
 
+    private fun isLayoutUnchanged(parent: CoordinatorLayout, child: V): Boolean {
+        return parent.width == layoutParentWidth &&
+                parent.height == layoutParentHeight &&
+                child.measuredWidth == child.width &&
+                child.measuredHeight == child.height &&
+                getPeekHeight() == layoutPeekHeight &&
+                initialHeight == layoutInitialHeight &&
+                hideable == layoutHideable &&
+                state === layoutState
+    }
+
+    /**
+     * Looks up nested scrolling child only when the previous one left the sheet or content of the sheet
+     * could have changed, walking the whole hierarchy of the sheet is expensive.
+     */
+    private fun resolveNestedScrollingChild(child: View, sheetLayoutRequested: Boolean) {
+        if (nestedScrollingChildDeclared) {
+            return
+        }
+        val scrollingChild = nestedScrollingChildRef?.get()
+        if (scrollingChild != null && scrollingChild.isDescendantOf(child)) {
+            return
+        }
+        if (scrollingChild == null && nestedScrollingChildResolved && !sheetLayoutRequested) {
+            return
+        }
+        nestedScrollingChildRef = child.findFirstScrollingChild()?.let { WeakReference(it) }
+        nestedScrollingChildResolved = true
+    }
+
     override fun onInterceptTouchEvent(
         parent: CoordinatorLayout,
         child: V,
@@ -289,10 +391,8 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         if (action == MotionEvent.ACTION_DOWN) {
             reset()
         }
-        if (velocityTracker == null) {
-            velocityTracker = VelocityTracker.obtain()
-        }
-        velocityTracker!!.addMovement(event)
+        // Shared with the drag helper, so every event is tracked exactly once
+        obtainVelocityTracker().addMovement(event)
         when (action) {
             MotionEvent.ACTION_UP, MotionEvent.ACTION_CANCEL -> {
                 touchingScrollingChild = false
@@ -320,9 +420,10 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             }
         }
         if (!ignoreEvents && viewDragHelper!!.shouldInterceptTouchEvent(event)) {
+            requestUnbufferedDispatch(parent, event)
             return true
         }
-        // We have to handle cases that the ViewDragHelper does not capture the bottom sheet because
+        // We have to handle cases that the drag helper does not capture the bottom sheet because
         // it is not the top most view of its parent. This is not necessary when the touch event is
         // happening over the scrolling content as nested scrolling logic handles that case.
         val scroll = nestedScrollingChildRef?.get()
@@ -341,171 +442,251 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             return true
         }
         if (viewDragHelper != null) {
-            viewDragHelper!!.processTouchEvent(event)
-            // Record the velocity
+            // Record the velocity, drag helper reads it on release
             if (action == MotionEvent.ACTION_DOWN) {
                 reset()
             }
-            if (velocityTracker == null) {
-                velocityTracker = VelocityTracker.obtain()
-            }
-            velocityTracker!!.addMovement(event)
-            // The ViewDragHelper tries to capture only the top-most View. We have to explicitly tell it
+            obtainVelocityTracker().addMovement(event)
+            viewDragHelper!!.processTouchEvent(event)
+            // The drag helper tries to capture only the top-most View. We have to explicitly tell it
             // to capture the bottom sheet in case it is not captured and the touch slop is passed.
             if (action == MotionEvent.ACTION_MOVE && !ignoreEvents) {
                 if (abs(initialY - event.y) > viewDragHelper!!.touchSlop) {
                     viewDragHelper!!.captureChildView(child, event.getPointerId(event.actionIndex))
                 }
             }
+            requestUnbufferedDispatch(parent, event)
         }
         return !ignoreEvents
     }
 
     override fun onStartNestedScroll(
         coordinatorLayout: CoordinatorLayout, child: V,
-        directTargetChild: View, target: View, nestedScrollAxes: Int
+        directTargetChild: View, target: View, nestedScrollAxes: Int, type: Int
     ): Boolean {
+        if (nestedScrollAxes and ViewCompat.SCROLL_AXIS_VERTICAL == 0 || !dragEnabled) {
+            return false
+        }
+        if (type == ViewCompat.TYPE_NON_TOUCH) {
+            if (!momentumHandOff || target !== nestedScrollingChildRef?.get()) {
+                return false
+            }
+            nestedFling = true
+            lastFlingDy = 0
+            lastFlingTime = 0
+            flingVelocity = 0f
+            return true
+        }
         lastNestedScrollDy = 0
         nestedScrolled = false
-        return nestedScrollAxes and ViewCompat.SCROLL_AXIS_VERTICAL != 0 && dragEnabled
+        nestedReleaseVelocity = 0f
+        return true
     }
 
     override fun onNestedPreScroll(
         coordinatorLayout: CoordinatorLayout, child: V, target: View, dx: Int,
-        dy: Int, consumed: IntArray
+        dy: Int, consumed: IntArray, type: Int
     ) {
+        if (type == ViewCompat.TYPE_NON_TOUCH) {
+            onNestedFlingPreScroll(child, target, dy, consumed)
+            return
+        }
         val scrollingChild = nestedScrollingChildRef?.get()
         if (target !== scrollingChild) {
             return
         }
-        val currentTop = child.top
+        val currentTop = getSheetTop(child)
         val newTop = currentTop - dy
         if (dy > 0) { // Upward
             if (newTop < minOffset) {
                 consumed[1] = currentTop - minOffset
-                ViewCompat.offsetTopAndBottom(child, -consumed[1])
+                offsetSheet(child, -consumed[1])
                 setStateInternal(BottomSheetState.STATE_EXPANDED)
             } else {
                 consumed[1] = dy
-                ViewCompat.offsetTopAndBottom(child, -dy)
+                offsetSheet(child, -dy)
                 setStateInternal(BottomSheetState.STATE_DRAGGING)
             }
         } else if (dy < 0) { // Downward
             if (target.canScrollVertically(-1)) {
                 if (newTop <= maxOffset || hideable) {
                     consumed[1] = dy
-                    ViewCompat.offsetTopAndBottom(child, -dy)
+                    offsetSheet(child, -dy)
                     setStateInternal(BottomSheetState.STATE_DRAGGING)
                 } else {
                     consumed[1] = currentTop - maxOffset
-                    ViewCompat.offsetTopAndBottom(child, -consumed[1])
+                    offsetSheet(child, -consumed[1])
                     setStateInternal(BottomSheetState.STATE_COLLAPSED)
                 }
             }
         }
-        dispatchOnSlide(child.top)
+        dispatchOnSlide(getSheetTop(child))
         lastNestedScrollDy = dy
         nestedScrolled = true
     }
 
-    override fun onStopNestedScroll(coordinatorLayout: CoordinatorLayout, child: V, target: View) {
-        if (child.top == minOffset) {
+    override fun onNestedScroll(
+        coordinatorLayout: CoordinatorLayout, child: V, target: View, dxConsumed: Int, dyConsumed: Int,
+        dxUnconsumed: Int, dyUnconsumed: Int, type: Int
+    ) {
+        if (type != ViewCompat.TYPE_NON_TOUCH || !nestedFling || dyUnconsumed >= 0 ||
+            target !== nestedScrollingChildRef?.get()
+        ) {
+            return
+        }
+        // Child reached its top while flinging down, the sheet continues with the momentum of the fling
+        val top = getSheetTop(child)
+        if (hideable && shouldHide(child, flingVelocity)) {
+            setRelease(parentHeight, BottomSheetState.STATE_HIDDEN)
+        } else {
+            setRelease(detents.ceiling(top + 1))
+        }
+        if (releaseTop == top) {
+            // Sheet can not move down, the child overscrolls
+            return
+        }
+        stopNestedFling()
+        startNestedRelease(child, flingVelocity)
+    }
+
+    override fun onStopNestedScroll(coordinatorLayout: CoordinatorLayout, child: V, target: View, type: Int) {
+        if (type == ViewCompat.TYPE_NON_TOUCH) {
+            if (nestedFling) {
+                nestedFling = false
+                settleAfterNestedFling(child)
+            }
+            return
+        }
+        if (getSheetTop(child) == minOffset) {
             setStateInternal(BottomSheetState.STATE_EXPANDED)
             return
         }
         if (target !== nestedScrollingChildRef?.get() || !nestedScrolled) {
             return
         }
-        val pxFromBottom = child.height - child.top
-
-        val viewDragReleasedState = if (lastNestedScrollDy > 0) { // Moving up
-            onDragReleaseMovingUp(child, pxFromBottom)
-        } else if (hideable && shouldHide(child, yVelocity)) {
-            ViewDragReleasedState(
-                top = parentHeight,
-                targetState = BottomSheetState.STATE_HIDDEN
-            )
-        } else if (lastNestedScrollDy.toFloat() == 0f) {
-            onNoDragRelease(child, pxFromBottom)
-        } else {
-            onDragReleaseMovingDown(child, pxFromBottom)
+        if (nestedFling) {
+            // Fling of the child has started already and moves the sheet on
+            nestedScrolled = false
+            return
         }
-
-        if (viewDragHelper!!.smoothSlideViewTo(child, child.left, viewDragReleasedState.top)) {
-            setStateInternal(BottomSheetState.STATE_SETTLING)
-            ViewCompat.postOnAnimation(
-                child,
-                SettleRunnable(child, viewDragReleasedState.targetState)
-            )
+        val top = getSheetTop(child)
+
+        if (lastNestedScrollDy > 0) { // Moving up
+            setRelease(detents.floor(top))
+        } else if (hideable && shouldHide(child, nestedReleaseVelocity)) {
+            setRelease(parentHeight, BottomSheetState.STATE_HIDDEN)
+        } else if (lastNestedScrollDy == 0) {
+            setRelease(detents.nearest(top))
         } else {
-            setStateInternal(viewDragReleasedState.targetState)
+            setRelease(detents.ceiling(top))
         }
+        startNestedRelease(child, nestedReleaseVelocity)
 
         nestedScrolled = false
     }
 
-    private fun onDragReleaseMovingUp(
-        releasedChild: View,
-        pxFromBottom: Int
-    ): ViewDragReleasedState {
-        return if (pxFromBottom > peekHeightBig) {
-            ViewDragReleasedState(
-                top = minOffset,
-                targetState = BottomSheetState.STATE_EXPANDED
-            )
-        } else {
-            ViewDragReleasedState(
-                top = releasedChild.height - peekHeightBig,
-                targetState = BottomSheetState.STATE_COLLAPSED
+    /**
+     * Moves the sheet up by a fling of the nested scrolling child, the child scrolls the rest once the sheet
+     * is expanded
+     */
+    private fun onNestedFlingPreScroll(child: V, target: View, dy: Int, consumed: IntArray) {
+        if (!nestedFling || settleAnimation.isRunning || target !== nestedScrollingChildRef?.get()) {
+            return
+        }
+        trackFlingVelocity(dy)
+        val currentTop = getSheetTop(child)
+        if (dy > 0 && currentTop > minOffset) {
+            consumed[1] = min(dy, currentTop - minOffset)
+            offsetSheet(child, -consumed[1])
+            val top = getSheetTop(child)
+            setStateInternal(
+                if (top == minOffset) BottomSheetState.STATE_EXPANDED else BottomSheetState.STATE_SETTLING
             )
+            dispatchOnSlide(top)
         }
     }
 
-    private fun onNoDragRelease(releasedChild: View, pxFromBottom: Int): ViewDragReleasedState {
-        // user did not release dragged view with any speed (no flinching)
-        return when {
-            pxFromBottom in 1 until peekHeightBig -> {
-                ViewDragReleasedState(
-                    top = releasedChild.height - peekHeightSmall,
-                    targetState = BottomSheetState.STATE_COLLAPSED
-                )
-            }
-            pxFromBottom < peekHeightBig -> {
-                ViewDragReleasedState(
-                    top = releasedChild.height - peekHeightBig,
-                    targetState = BottomSheetState.STATE_COLLAPSED
-                )
-            }
-            else -> {
-                ViewDragReleasedState(
-                    top = minOffset,
-                    targetState = BottomSheetState.STATE_EXPANDED
-                )
-            }
+    /**
+     * Stops fling of the nested scrolling child which moves the sheet, if there is one
+     */
+    private fun stopNestedFling() {
+        if (!nestedFling) {
+            return
         }
+        nestedFling = false
+        nestedScrollingChildRef?.get()?.let { ViewCompat.stopNestedScroll(it, ViewCompat.TYPE_NON_TOUCH) }
     }
 
-    private fun onDragReleaseMovingDown(
-        releasedChild: View,
-        pxFromBottom: Int
-    ): ViewDragReleasedState {
-        return if (pxFromBottom in 1 until peekHeightBig) {
-            ViewDragReleasedState(
-                top = maxOffset,
-                targetState = BottomSheetState.STATE_COLLAPSED
-            )
+    /**
+     * Fling deltas are delivered once per animation frame, their rate gives the velocity of the fling
+     */
+    private fun trackFlingVelocity(dy: Int) {
+        val time = AnimationUtils.currentAnimationTimeMillis()
+        if (lastFlingTime != 0L && time > lastFlingTime) {
+            // Content scrolling up moves the sheet up, so the velocity has the opposite sign
+            flingVelocity = -dy * 1000f / (time - lastFlingTime)
+        }
+        lastFlingDy = dy
+        lastFlingTime = time
+    }
+
+    /**
+     * Settles the sheet moved by a fling which ran out before reaching a detent
+     */
+    private fun settleAfterNestedFling(child: V) {
+        val top = getSheetTop(child)
+        if (top == minOffset) {
+            setStateInternal(BottomSheetState.STATE_EXPANDED)
+            return
+        }
+        if (settleAnimation.isRunning ||
+            state !== BottomSheetState.STATE_SETTLING && state !== BottomSheetState.STATE_DRAGGING
+        ) {
+            // Sheet rests or settles already
+            return
+        }
+        setRelease(if (lastFlingDy > 0) detents.floor(top) else detents.nearest(top))
+        startNestedRelease(child, flingVelocity)
+    }
+
+    /**
+     * Settles the sheet at the release set by [setRelease]
+     *
+     * @param velocity current velocity of the sheet in px/s, positive when moving down
+     */
+    private fun startNestedRelease(child: V, velocity: Float) {
+        if (viewDragHelper!!.smoothSlideViewTo(child, releaseTop, yvel = velocity.toInt())) {
+            setStateInternal(BottomSheetState.STATE_SETTLING)
+            settleAnimation.start(releaseState)
         } else {
-            ViewDragReleasedState(
-                top = releasedChild.height - peekHeightBig,
-                targetState = BottomSheetState.STATE_COLLAPSED
-            )
+            setStateInternal(releaseState)
         }
     }
 
+    /**
+     * Sets release to given detent
+     */
+    private fun setRelease(top: Int) {
+        setRelease(top, if (top == minOffset) BottomSheetState.STATE_EXPANDED else BottomSheetState.STATE_COLLAPSED)
+    }
+
+    private fun setRelease(top: Int, targetState: BottomSheetState) {
+        releaseTop = top
+        releaseState = targetState
+    }
+
     override fun onNestedPreFling(
         coordinatorLayout: CoordinatorLayout, child: V, target: View,
         velocityX: Float, velocityY: Float
     ): Boolean {
+        if (target === nestedScrollingChildRef?.get()) {
+            // Content scrolling up moves the sheet up, so the velocity has the opposite sign
+            nestedReleaseVelocity = (-velocityY).coerceIn(-maximumVelocity, maximumVelocity)
+        }
+        if (momentumHandOff && velocityY > 0 && target === nestedScrollingChildRef?.get()) {
+            // Child flings and its momentum moves the sheet up first
+            return false
+        }
         return target === nestedScrollingChildRef?.get() && (
                 state !== BottomSheetState.STATE_EXPANDED
                         || super.onNestedPreFling(
@@ -523,10 +704,21 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
     }
 
     override fun setPeekHeights(smaller: Int, bigger: Int, affectInitHeight: Boolean) {
+        setPeekHeights(intArrayOf(smaller, bigger), affectInitHeight)
+    }
+
+    override fun setPeekHeights(heights: IntArray, affectInitHeight: Boolean) {
+        require(heights.isNotEmpty()) { "At least one peek height is required" }
+        val sorted = heights.sortedArray()
+        val smaller = sorted.first()
         setPeekHeight(smaller)
 
+        peekHeights = sorted
         peekHeightSmall = smaller
-        peekHeightBig = bigger
+        peekHeightBig = sorted.last()
+        if (viewRef != null) {
+            updateDetents()
+        }
 
         // Initial height cannot be smaller than collapsed state
         if (affectInitHeight) {
@@ -569,6 +761,26 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
 
     fun setPeekHeightSemiCollapsed(bigger: Int) {
         peekHeightBig = bigger
+
+        // Replace the biggest peek height only, smaller ones are kept
+        val smaller = if (peekHeights.isEmpty()) intArrayOf(peekHeightSmall) else peekHeights.copyOf(peekHeights.size - 1)
+        peekHeights = (smaller + bigger).sortedArray()
+        if (viewRef != null) {
+            updateDetents()
+        }
+    }
+
+    override fun getPeekHeights(): IntArray {
+        return peekHeights.copyOf()
+    }
+
+    /**
+     * Recomputes tops of all positions the sheet can rest at, must be called whenever peek heights or
+     * the sheet layout change
+     */
+    private fun updateDetents() {
+        val heights = if (peekHeights.isNotEmpty()) peekHeights else intArrayOf(parentHeight - maxOffset)
+        detents.update(minOffset, parentHeight, heights)
     }
 
     /**
@@ -602,6 +814,105 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         return hideable
     }
 
+    /**
+     * Sets engine which computes settling of the sheet after it is released or animated to another state.
+     * [ScrollerSettleEngine] is used by default, [SpringSettleEngine] keeps the velocity sheet was released with.
+     *
+     * @param engine engine used from the next settle on, must not be shared with another sheet
+     * @since 1.1.0
+     */
+    fun setSettleEngine(engine: SettleEngine) {
+        settleEngine = engine
+        viewDragHelper?.setSettleEngine(engine)
+    }
+
+    /**
+     * Positions the sheet by its translation instead of its layout. The sheet stays laid out at its expanded
+     * position and dragging or settling changes only its [View.setTranslationY], so moving the sheet does
+     * not change its bounds nor invalidate the parent. Hit testing, nested scrolling and
+     * [BottomSheetCallback.onSlide] account for the translation. Translation of the sheet must not be
+     * changed by anyone else while enabled. Disabled by default.
+     *
+     * @param enabled true to position the sheet by translation
+     * @since 1.1.0
+     */
+    fun setPositionByTranslation(enabled: Boolean) {
+        if (positionByTranslation == enabled) {
+            return
+        }
+        viewDragHelper?.abort()
+        val child = viewRef?.get()
+        val top = child?.let { getSheetTop(it) }
+        positionByTranslation = enabled
+        viewDragHelper?.setMoveByTranslation(enabled)
+        if (child != null && top != null) {
+            if (!enabled) {
+                child.translationY = 0f
+            }
+            placeSheet(child, top)
+        }
+    }
+
+    /**
+     * Reduces latency between the finger and the dragged sheet. Once the sheet is captured, the rest of the
+     * gesture is requested by [View.requestUnbufferedDispatch], so move events are delivered as soon as
+     * they arrive instead of being batched to frames. Velocity of releases already accounts for historical
+     * samples of batched events. Disabled by default.
+     *
+     * @param enabled      true to request unbuffered input while the sheet is dragged
+     * @param predictTouch true to also move the sheet ahead of the finger by the distance it travels in one
+     *                     frame, estimated from historical samples of every move event
+     * @since 1.1.0
+     */
+    @JvmOverloads
+    fun setLowLatencyInput(enabled: Boolean, predictTouch: Boolean = false) {
+        lowLatencyInput = enabled
+        touchPrediction = enabled && predictTouch
+        viewDragHelper?.setTouchPrediction(touchPrediction)
+    }
+
+    /**
+     * Carries momentum of flings between the nested scrolling child and the sheet. Flinging up moves the
+     * sheet first and scrolls the child once the sheet is expanded. Child flinging down to its top hands
+     * the rest of its velocity over to the sheet, which settles at the next detent below. A fling which
+     * runs out between detents settles the sheet at the nearest one in its direction. Disabled by default.
+     *
+     * @param enabled true to hand fling momentum over between the child and the sheet
+     * @since 1.1.0
+     */
+    fun setMomentumHandOff(enabled: Boolean) {
+        momentumHandOff = enabled
+    }
+
+    /**
+     * Enables coalescing of [BottomSheetCallback.onSlide] events. When enabled, at most one event per frame
+     * is delivered right before the frame is drawn, carrying the latest offset of the sheet. The sheet itself
+     * is still moved immediately. Disabled by default.
+     *
+     * @param coalesce true to deliver at most one slide event per frame
+     * @since 1.1.0
+     */
+    fun setCoalesceSlideEvents(coalesce: Boolean) {
+        coalesceSlideEvents = coalesce
+        updateSlideObserver(viewRef?.get())
+    }
+
+    /**
+     * Declares view which scrolls content of the sheet, so the sheet does not have to search its hierarchy
+     * for the first [androidx.core.view.NestedScrollingChild] on layout.
+     *
+     * @param view nested scrolling child of the sheet, or null to find it automatically
+     * @since 1.1.0
+     */
+    fun setNestedScrollingChild(view: View?) {
+        nestedScrollingChildDeclared = view != null
+        nestedScrollingChildResolved = view != null
+        nestedScrollingChildRef = view?.let { WeakReference(it) }
+        if (view == null) {
+            viewRef?.get()?.requestLayout()
+        }
+    }
+
     /**
      * Sets a callback to be notified of bottom sheet events.
      *
@@ -611,6 +922,23 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         this.callback = callback
     }
 
+    override fun addBottomSheetCallback(callback: BottomSheetCallback) {
+        if (callback !in callbacks) {
+            callbacks += callback
+        }
+    }
+
+    override fun removeBottomSheetCallback(callback: BottomSheetCallback) {
+        val index = callbacks.indexOf(callback)
+        if (index >= 0) {
+            callbacks = if (callbacks.size == 1) {
+                NO_CALLBACKS
+            } else {
+                callbacks.filterIndexed { i, _ -> i != index }.toTypedArray()
+            }
+        }
+    }
+
     /**
      * Sets the state of the bottom sheet. The bottom sheet will transition to that state with
      * animation.
@@ -619,7 +947,7 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
      * [BottomSheetState.STATE_HIDDEN].
      */
     override fun setState(state: BottomSheetState) {
-        if (state === this.state && state !== BottomSheetState.STATE_COLLAPSED) {
+        if (state === this.state && state !== BottomSheetState.STATE_COLLAPSED && !pendingTransition.isPending) {
             return
         }
         if (viewRef == null) {
@@ -635,66 +963,63 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         val child = viewRef!!.get() ?: return
 
         // Start the animation; wait until a pending layout if there is one.
-        val parent = child.parent
-        if (parent != null && parent.isLayoutRequested && ViewCompat.isAttachedToWindow(child)) {
-            child.post { startSettlingAnimation(child, state) }
+        if (isLayoutPending(child)) {
+            pendingTransition.post(child, state)
         } else {
+            pendingTransition.cancel()
             startSettlingAnimation(child, state)
         }
     }
 
     override fun animateAndSetHeights(pixels: Int) {
-        animateToPixels(pixels, pixels, pixels, true)
+        animateToPixels(pixels, intArrayOf(pixels), true)
     }
 
     override fun animateAndSetHeights(pixels: Int, collapsedSmall: Int, collapsedBig: Int) {
-        animateToPixels(pixels, collapsedSmall, collapsedBig, true)
+        animateToPixels(pixels, intArrayOf(collapsedSmall, collapsedBig), true)
+    }
+
+    override fun animateAndSetHeights(pixels: Int, heights: IntArray) {
+        animateToPixels(pixels, heights, true)
     }
 
     private fun animateToPixels(
         pixels: Int,
-        collapsedSmall: Int,
-        collapsedBig: Int,
+        heights: IntArray,
         setHeights: Boolean
     ) {
         viewRef?.get()?.let { child ->
-            // The view is not laid out yet; modify state and let onLayoutChild handle it later
-
-            val parent = child.parent
-            if (parent != null && parent.isLayoutRequested && ViewCompat.isAttachedToWindow(child)) {
-                child.post {
-                    startAnimation(
-                        child,
-                        pixels,
-                        collapsedSmall,
-                        collapsedBig,
-                        setHeights
-                    )
-                }
+            // Wait until a pending layout if there is one
+            if (isLayoutPending(child)) {
+                pendingTransition.post(child, pixels, heights, setHeights)
             } else {
-                startAnimation(child, pixels, collapsedSmall, collapsedBig, setHeights)
+                pendingTransition.cancel()
+                startAnimation(child, pixels, heights, setHeights)
             }
         }
     }
 
+    private fun isLayoutPending(child: View): Boolean {
+        val parent = child.parent
+        return parent != null && parent.isLayoutRequested && ViewCompat.isAttachedToWindow(child)
+    }
+
     internal fun startAnimation(
         child: View,
         pixels: Int,
-        collapsedSmall: Int,
-        collapsedBig: Int,
+        heights: IntArray,
         setHeights: Boolean
     ) {
-        if (viewDragHelper!!.smoothSlideViewTo(child, child.left, parentHeight - pixels, 300)) {
+        if (settleTo(child, parentHeight - pixels)) {
             setStateInternal(BottomSheetState.STATE_SETTLING)
-            ViewCompat.postOnAnimation(child) {
-                SettleRunnable(child, BottomSheetState.STATE_COLLAPSED).run()
-                if (setHeights) {
-                    setPeekHeights(collapsedSmall, collapsedBig)
-                }
+            if (setHeights) {
+                settleAnimation.start(BottomSheetState.STATE_COLLAPSED, heights)
+            } else {
+                settleAnimation.start(BottomSheetState.STATE_COLLAPSED)
             }
         } else if (setHeights) {
             setStateInternal(BottomSheetState.STATE_COLLAPSED)
-            setPeekHeights(collapsedSmall, collapsedBig, false)
+            setPeekHeights(heights, false)
             setInitialHeight(pixels)
         }
     }
@@ -714,40 +1039,84 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             return
         }
         this.state = state
-        val bottomSheet = viewRef?.get()
-        if (bottomSheet != null && callback != null) {
-            callback!!.onStateChanged(bottomSheet, state)
+        // Deliver last position before the state it ended in
+        dispatchPendingSlide()
+        val bottomSheet = viewRef?.get() ?: return
+        // Callbacks may change while dispatching, iterate over current snapshot
+        val legacyCallback = this.callback
+        val callbacks = this.callbacks
+        legacyCallback?.onStateChanged(bottomSheet, state)
+        for (callback in callbacks) {
+            callback.onStateChanged(bottomSheet, state)
         }
     }
 
-    private fun reset() {
-        activePointerId = ViewDragHelper.INVALID_POINTER
-        if (velocityTracker != null) {
+    /**
+     * Releases resources which are recreated with the next touch, does nothing while sheet moves
+     */
+    private fun releaseIdleResources() {
+        if (state === BottomSheetState.STATE_DRAGGING || state === BottomSheetState.STATE_SETTLING) {
+            return
+        }
+        // Samples of a gesture in progress are needed for the release velocity
+        if (viewDragHelper?.hasPointersDown != true && velocityTracker != null) {
+            viewDragHelper?.setVelocityTracker(null)
             velocityTracker?.recycle()
             velocityTracker = null
         }
+        viewDragHelper?.trimMemory()
+    }
+
+    /**
+     * Asks for unbatched delivery of the rest of the gesture once the sheet is dragged
+     */
+    private fun requestUnbufferedDispatch(parent: CoordinatorLayout, event: MotionEvent) {
+        if (lowLatencyInput && !unbufferedDispatchRequested && state === BottomSheetState.STATE_DRAGGING) {
+            parent.requestUnbufferedDispatch(event)
+            unbufferedDispatchRequested = true
+        }
+    }
+
+    private fun reset() {
+        activePointerId = SheetDragHelper.INVALID_POINTER
+        // Request ends with the gesture
+        unbufferedDispatchRequested = false
+        // Tracker is kept for the next gesture
+        velocityTracker?.clear()
+    }
+
+    /**
+     * @return velocity tracker shared with the drag helper, created when there is none
+     */
+    private fun obtainVelocityTracker(): VelocityTracker {
+        return velocityTracker ?: VelocityTracker.obtain().also {
+            velocityTracker = it
+            viewDragHelper?.setVelocityTracker(it)
+        }
     }
 
     private fun shouldHide(child: View, yVel: Float): Boolean {
         if (skipCollapsed) {
             return true
         }
-        if (child.top < maxOffset) {
+        val top = getSheetTop(child)
+        if (top < maxOffset) {
             // It should not hide, but collapse.
             return false
         }
-        val newTop = child.top + yVel * HIDE_FRICTION
+        val newTop = top + yVel * HIDE_FRICTION
         return abs(newTop - maxOffset) / peekHeight.toFloat() > HIDE_THRESHOLD
     }
 
-    private fun startSettlingAnimation(child: View?, state: BottomSheetState) {
+    private fun startSettlingAnimation(child: View, state: BottomSheetState) {
         var top: Int
         if (state === BottomSheetState.STATE_COLLAPSED) {
-            top = child!!.height - peekHeightBig
+            // Top most collapsed detent
+            top = detents[1.coerceAtMost(detents.size - 1)]
 
             // Collapse to smaller peek height if possible
-            if (viewRef!!.get() != null && viewRef!!.get()?.top == top) {
-                top = child.height - peekHeightSmall
+            if (getSheetTop(child) == top) {
+                top = detents[detents.size - 1]
             }
         } else if (state === BottomSheetState.STATE_EXPANDED) {
             top = minOffset
@@ -757,26 +1126,112 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
             return
             // throw new IllegalArgumentException("Illegal state argument: " + state);
         }
-        setStateInternal(BottomSheetState.STATE_SETTLING)
-        if (viewDragHelper!!.smoothSlideViewTo(child, child!!.left, top, 300)) {
-            ViewCompat.postOnAnimation(child, SettleRunnable(child, state))
+        if (settleTo(child, top)) {
+            setStateInternal(BottomSheetState.STATE_SETTLING)
+            settleAnimation.start(state)
+        } else {
+            setStateInternal(state)
+        }
+    }
+
+    /**
+     * @return top of the sheet including its translation when it is positioned by translation
+     */
+    private fun getSheetTop(child: View): Int {
+        return if (positionByTranslation) child.top + child.translationY.roundToInt() else child.top
+    }
+
+    /**
+     * Moves the sheet by given distance
+     */
+    private fun offsetSheet(child: View, dy: Int) {
+        if (positionByTranslation) {
+            child.translationY += dy
+        } else {
+            ViewCompat.offsetTopAndBottom(child, dy)
+        }
+    }
+
+    /**
+     * Moves the sheet to given top. Positioned by translation, the sheet is laid out at expanded top.
+     */
+    private fun placeSheet(child: View, top: Int) {
+        if (positionByTranslation) {
+            ViewCompat.offsetTopAndBottom(child, minOffset - child.top)
+            child.translationY = (top - minOffset).toFloat()
+        } else {
+            ViewCompat.offsetTopAndBottom(child, top - child.top)
+        }
+    }
+
+    /**
+     * Starts settling of the sheet to given top. Settle which is already running is retargeted instead, so
+     * the sheet keeps its current position and velocity.
+     *
+     * @param child sheet view
+     * @param top   final top of the sheet
+     * @return true when the sheet is settling, false when it already is at given top
+     */
+    private fun settleTo(child: View, top: Int): Boolean {
+        stopNestedFling()
+        val helper = viewDragHelper!!
+        if (state === BottomSheetState.STATE_SETTLING && helper.capturedView === child && helper.retargetSettle(top)) {
+            return true
         }
+        return helper.smoothSlideViewTo(child, top, MIN_SETTLE_DURATION)
     }
 
     internal fun dispatchOnSlide(top: Int) {
+        if (slideObserver != null) {
+            pendingSlideTop = top
+        } else {
+            notifyOnSlide(top)
+        }
+    }
+
+    private fun dispatchPendingSlide() {
+        if (pendingSlideTop != NO_PENDING_SLIDE) {
+            val top = pendingSlideTop
+            pendingSlideTop = NO_PENDING_SLIDE
+            notifyOnSlide(top)
+        }
+    }
+
+    /**
+     * Keeps pre draw listener delivering coalesced slide events registered to the current tree of the sheet.
+     */
+    private fun updateSlideObserver(view: View?) {
+        val observer = if (coalesceSlideEvents) view?.viewTreeObserver else null
+        if (observer === slideObserver) {
+            return
+        }
+        slideObserver?.let {
+            if (it.isAlive) {
+                it.removeOnPreDrawListener(slidePreDrawListener)
+            }
+        }
+        observer?.addOnPreDrawListener(slidePreDrawListener)
+        slideObserver = observer
+
+        if (observer == null) {
+            dispatchPendingSlide()
+        }
+    }
+
+    private fun notifyOnSlide(top: Int) {
         val bottomSheet = viewRef?.get()
-        if (bottomSheet != null && callback != null) {
+        val legacyCallback = this.callback
+        val callbacks = this.callbacks
+        if (bottomSheet != null && (legacyCallback != null || callbacks.isNotEmpty())) {
             val maxOffset = max(parentHeight - peekHeightBig, parentHeight - peekHeightMin)
-            if (top > maxOffset) {
-                callback!!.onSlide(
-                    bottomSheet,
-                    (maxOffset - top).toFloat() / (parentHeight - maxOffset)
-                )
+            val slideOffset = if (top > maxOffset) {
+                (maxOffset - top).toFloat() / (parentHeight - maxOffset)
             } else {
-                callback!!.onSlide(
-                    bottomSheet,
-                    (this.maxOffset - top).toFloat() / (this.maxOffset - minOffset)
-                )
+                (this.maxOffset - top).toFloat() / (this.maxOffset - minOffset)
+            }
+            legacyCallback?.onSlide(bottomSheet, slideOffset)
+            for (callback in callbacks) {
+                callback.onSlide(bottomSheet, slideOffset)
             }
         }
     }
@@ -796,13 +1251,7 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
     override fun setAutoInitHeight() {
         viewRef?.get()?.let {
             if (state === BottomSheetState.STATE_COLLAPSED) {
-                val bigTop = it.height - peekHeightBig
-
-                if (it.top == bigTop) {
-                    setInitialHeight(peekHeightBig)
-                } else {
-                    setInitialHeight(peekHeightSmall)
-                }
+                setInitialHeight(parentHeight - detents.nearestCollapsed(getSheetTop(it)))
             }
         }
     }
@@ -811,22 +1260,114 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
         this.dragEnabled = dragEnabled
     }
 
-    private inner class SettleRunnable internal constructor(
-        private val mView: View,
-        private val mTargetState: BottomSheetState
-    ) : Runnable {
+    /**
+     * Moves the sheet on every frame of [SettleFrameDriver] until settling is done. Only one instance exists
+     * per behavior and it is reused for every settle, so no allocation happens once the sheet is released.
+     */
+    private inner class SettleAnimation : SettleFrameDriver.Client {
+
+        private var running: Boolean = false
+        private var targetState = BottomSheetState.STATE_COLLAPSED
+
+        // Peek heights applied after the first settled frame, see [startAnimation]
+        private var pendingHeights: IntArray? = null
+
+        val isRunning: Boolean
+            get() = running
+
+        fun start(targetState: BottomSheetState) {
+            // Settle takes over the sheet from a fling of the nested scrolling child
+            stopNestedFling()
+            running = true
+            this.targetState = targetState
+            pendingHeights = null
+            SettleFrameDriver.add(this)
+        }
+
+        fun start(targetState: BottomSheetState, peekHeights: IntArray) {
+            start(targetState)
+            pendingHeights = peekHeights
+        }
+
+        override fun doFrame(frameTimeNanos: Long): Boolean {
+            if (!running) {
+                return false
+            }
+
+            if (viewDragHelper?.continueSettling(true, frameTimeNanos) != true) {
+                running = false
+                // Sheet caught by a touch settles again once it is released
+                if (state !== BottomSheetState.STATE_DRAGGING) {
+                    setStateInternal(targetState)
+                }
+            }
+
+            pendingHeights?.let {
+                pendingHeights = null
+                setPeekHeights(it, true)
+            }
+
+            // State callback might have started another settle
+            return running
+        }
+    }
+
+    /**
+     * Transition requested while a layout of the sheet is pending. Only the latest request is kept and it is
+     * applied once after the layout, so bursts of requests do not start competing animations.
+     */
+    private inner class PendingTransition : Runnable {
+
+        private var view: View? = null
+
+        // Target state of transition, or null when animating to pixels
+        private var state: BottomSheetState? = null
+        private var pixels: Int = 0
+        private var heights: IntArray = NO_PEEK_HEIGHTS
+        private var setHeights: Boolean = false
+
+        val isPending: Boolean
+            get() = view != null
+
+        fun post(view: View, state: BottomSheetState) {
+            this.state = state
+            post(view)
+        }
+
+        fun post(view: View, pixels: Int, heights: IntArray, setHeights: Boolean) {
+            this.state = null
+            this.pixels = pixels
+            this.heights = heights
+            this.setHeights = setHeights
+            post(view)
+        }
+
+        fun cancel() {
+            view?.removeCallbacks(this)
+            view = null
+        }
+
+        private fun post(view: View) {
+            if (this.view !== view) {
+                cancel()
+                this.view = view
+                view.post(this)
+            }
+        }
 
         override fun run() {
-            if (viewDragHelper != null && viewDragHelper!!.continueSettling(true)) {
-                ViewCompat.postOnAnimation(mView, this)
+            val child = view ?: return
+            view = null
+
+            val state = this.state
+            if (state != null) {
+                startSettlingAnimation(child, state)
             } else {
-                setStateInternal(mTargetState)
+                startAnimation(child, pixels, heights, setHeights)
             }
         }
     }
 
-    private data class ViewDragReleasedState(val top: Int, val targetState: BottomSheetState)
-
     companion object {
 
         /**
@@ -843,6 +1384,13 @@ class BottomSheetTwoStatesBehavior<V : View>(context: Context, attrs: AttributeS
 
         private const val SCROLL_DIRECTION_UP = -1
 
+        private const val MIN_SETTLE_DURATION = 300 // ms
+
+        private const val NO_PENDING_SLIDE = Int.MIN_VALUE
+
+        private val NO_CALLBACKS = emptyArray<BottomSheetCallback>()
+        private val NO_PEEK_HEIGHTS = IntArray(0)
+
         /**
          * A utility function to get the [BottomSheetTwoStatesBehavior] associated with the view.
          *
@@ -0,0 +1,84 @@
+package cz.eman.bottomsheet.core
+
+import java.util.Arrays
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Sorted tops of all positions the sheet can rest at - expanded one first, followed by collapsed ones.
+ * Tops are precomputed on layout, so resolving where a released sheet should settle is a binary search
+ * without allocation.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal class DetentIndex {
+
+    private var offsets = IntArray(0)
+
+    /**
+     * Number of detents including the expanded one
+     */
+    var size: Int = 0
+        private set
+
+    /**
+     * @return top of detent at given index, detents are sorted from the top most one
+     */
+    operator fun get(index: Int): Int = offsets[index]
+
+    /**
+     * Recomputes tops of detents.
+     *
+     * @param minOffset    top of expanded sheet
+     * @param parentHeight height of the parent of sheet
+     * @param heights      visible heights of collapsed sheet sorted from the smallest one
+     */
+    fun update(minOffset: Int, parentHeight: Int, heights: IntArray) {
+        if (offsets.size < heights.size + 1) {
+            offsets = IntArray(heights.size + 1)
+        }
+        offsets[0] = minOffset
+        // Smallest height has the biggest top
+        for (i in heights.indices) {
+            offsets[heights.size - i] = max(minOffset, parentHeight - heights[i])
+        }
+        size = heights.size + 1
+    }
+
+    /**
+     * @return top of the closest detent above or at given top
+     */
+    fun floor(top: Int): Int {
+        val index = Arrays.binarySearch(offsets, 0, size, top)
+        return if (index >= 0) offsets[index] else offsets[max(0, -index - 2)]
+    }
+
+    /**
+     * @return top of the closest detent below or at given top
+     */
+    fun ceiling(top: Int): Int {
+        val index = Arrays.binarySearch(offsets, 0, size, top)
+        return if (index >= 0) offsets[index] else offsets[min(size - 1, -index - 1)]
+    }
+
+    /**
+     * @return top of detent closest to given top
+     */
+    fun nearest(top: Int): Int {
+        val above = floor(top)
+        val below = ceiling(top)
+        return if (top - above <= below - top) above else below
+    }
+
+    /**
+     * @return top of collapsed detent closest to given top
+     */
+    fun nearestCollapsed(top: Int): Int {
+        if (size < 2) {
+            return offsets[0]
+        }
+        // Below the top most collapsed detent the nearest one is always collapsed
+        return if (top <= offsets[1]) offsets[1] else nearest(top)
+    }
+}
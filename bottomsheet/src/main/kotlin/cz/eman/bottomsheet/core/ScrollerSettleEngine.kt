@@ -0,0 +1,94 @@
+package cz.eman.bottomsheet.core
+
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Default [SettleEngine] which moves the view along a fixed quintic curve for a given duration, the same
+ * way [android.widget.OverScroller] does when scrolling.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+class ScrollerSettleEngine : SettleEngine {
+
+    override var position: Int = 0
+        private set
+
+    override var finalPosition: Int = 0
+        private set
+
+    private var startPosition: Int = 0
+    private var startTime: Long = 0
+    private var duration: Long = 0
+
+    override fun start(
+        startPosition: Int,
+        finalPosition: Int,
+        velocity: Float,
+        durationMs: Int,
+        startTimeNanos: Long
+    ) {
+        this.startPosition = startPosition
+        this.finalPosition = finalPosition
+        position = startPosition
+        startTime = startTimeNanos
+        duration = durationMs * NANOS_PER_MS
+    }
+
+    override fun retarget(finalPosition: Int, frameTimeNanos: Long) {
+        val velocity = computeVelocity(frameTimeNanos)
+        val delta = finalPosition - position
+
+        // Quintic curve starts at 5 * delta / duration, pick duration that keeps current velocity
+        val durationMs = if (velocity != 0f && (velocity > 0) == (delta > 0)) {
+            (5 * 1000 * delta / velocity).toInt()
+        } else {
+            (max(0L, duration - (frameTimeNanos - startTime)) / NANOS_PER_MS).toInt()
+        }
+        start(position, finalPosition, velocity, min(max(durationMs, MIN_DURATION), MAX_DURATION), frameTimeNanos)
+    }
+
+    override fun computePosition(frameTimeNanos: Long): Boolean {
+        val elapsed = max(0L, frameTimeNanos - startTime)
+        if (elapsed >= duration) {
+            position = finalPosition
+            return false
+        }
+
+        position = startPosition + (interpolate(elapsed.toFloat() / duration) * (finalPosition - startPosition)).roundToInt()
+        // Close enough. The interpolator might think we're still moving but the user sure doesn't.
+        return position != finalPosition
+    }
+
+    override fun abort() {
+        position = finalPosition
+        duration = 0
+    }
+
+    /**
+     * @return velocity in px/s at given time
+     */
+    private fun computeVelocity(frameTimeNanos: Long): Float {
+        val elapsed = max(0L, frameTimeNanos - startTime)
+        if (duration == 0L || elapsed >= duration) {
+            return 0f
+        }
+        val t = 1f - elapsed.toFloat() / duration
+        return (finalPosition - startPosition) * 5 * t * t * t * t * NANOS_PER_SECOND / duration
+    }
+
+    private fun interpolate(input: Float): Float {
+        val t = input - 1f
+        return t * t * t * t * t + 1f
+    }
+
+    companion object {
+        private const val NANOS_PER_MS = 1_000_000L
+        private const val NANOS_PER_SECOND = 1_000_000_000f
+
+        private const val MIN_DURATION = 100 // ms
+        private const val MAX_DURATION = 600 // ms
+    }
+}
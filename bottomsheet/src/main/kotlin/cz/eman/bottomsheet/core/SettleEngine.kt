@@ -0,0 +1,55 @@
+package cz.eman.bottomsheet.core
+
+/**
+ * Computes position of a settling sheet in time. Engine is advanced once per frame with the vsync time of
+ * that frame. Every sheet needs its own instance, engines keep state of the running settle.
+ *
+ * @see ScrollerSettleEngine
+ * @see SpringSettleEngine
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+interface SettleEngine {
+
+    /**
+     * Position of the settling view computed for the last frame
+     */
+    val position: Int
+
+    /**
+     * Position the view is settling at
+     */
+    val finalPosition: Int
+
+    /**
+     * Starts new settle. Previous one is dropped.
+     *
+     * @param startPosition  current position of the view
+     * @param finalPosition  position the view should settle at
+     * @param velocity       velocity of the view in px/s, positive when moving to higher positions
+     * @param durationMs     suggested duration of the settle, engines driven by physics may ignore it
+     * @param startTimeNanos start time in [System.nanoTime] time base
+     */
+    fun start(startPosition: Int, finalPosition: Int, velocity: Float, durationMs: Int, startTimeNanos: Long)
+
+    /**
+     * Changes final position of a running settle while keeping current position and velocity of the view.
+     *
+     * @param finalPosition  new position the view should settle at
+     * @param frameTimeNanos time of the current frame in [System.nanoTime] time base
+     */
+    fun retarget(finalPosition: Int, frameTimeNanos: Long)
+
+    /**
+     * Computes [position] for given frame.
+     *
+     * @param frameTimeNanos vsync time of the frame in [System.nanoTime] time base
+     * @return true when settle is still in progress
+     */
+    fun computePosition(frameTimeNanos: Long): Boolean
+
+    /**
+     * Stops the settle and moves [position] to [finalPosition].
+     */
+    fun abort()
+}
@@ -0,0 +1,108 @@
+package cz.eman.bottomsheet.core
+
+import android.view.Choreographer
+import androidx.annotation.VisibleForTesting
+
+/**
+ * Drives all running sheet settle animations from one [Choreographer.FrameCallback]. Every registered
+ * [Client] is advanced once per frame with the vsync time of that frame, so all sheets step on the same
+ * clock and nothing is re-posted per sheet. Must be used from the main thread only.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal object SettleFrameDriver : Choreographer.FrameCallback {
+
+    /**
+     * Animation advanced by the driver
+     */
+    interface Client {
+
+        /**
+         * Advances animation to the given frame time.
+         *
+         * @param frameTimeNanos vsync time of the frame in [System.nanoTime] time base
+         * @return true when client should be advanced on the next frame as well
+         */
+        fun doFrame(frameTimeNanos: Long): Boolean
+    }
+
+    private var clients = arrayOfNulls<Client>(INITIAL_CAPACITY)
+    private var clientCount = 0
+    private var frameScheduled = false
+
+    /**
+     * Posts the driver to the next frame, replaced in unit tests where [Choreographer] is not available
+     */
+    @VisibleForTesting
+    internal var frameScheduler: (Choreographer.FrameCallback) -> Unit = {
+        Choreographer.getInstance().postFrameCallback(it)
+    }
+
+    /**
+     * Starts advancing given client from the next frame. Adding already running client does nothing.
+     *
+     * @param client client to advance
+     */
+    fun add(client: Client) {
+        if (indexOf(client) >= 0) {
+            return
+        }
+        if (clientCount == clients.size) {
+            clients = clients.copyOf(clientCount * 2)
+        }
+        clients[clientCount++] = client
+        scheduleFrame()
+    }
+
+    /**
+     * Stops advancing given client.
+     *
+     * @param client client to stop
+     */
+    fun remove(client: Client) {
+        val index = indexOf(client)
+        if (index < 0) {
+            return
+        }
+        System.arraycopy(clients, index + 1, clients, index, clientCount - index - 1)
+        clients[--clientCount] = null
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        frameScheduled = false
+
+        var i = 0
+        while (i < clientCount) {
+            val client = clients[i]!!
+            // Client may add or remove clients from within its frame, so check its position again
+            if (!client.doFrame(frameTimeNanos)) {
+                remove(client)
+            } else if (i < clientCount && clients[i] === client) {
+                i++
+            }
+        }
+
+        if (clientCount > 0) {
+            scheduleFrame()
+        }
+    }
+
+    private fun scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true
+            frameScheduler(this)
+        }
+    }
+
+    private fun indexOf(client: Client): Int {
+        for (i in 0 until clientCount) {
+            if (clients[i] === client) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    private const val INITIAL_CAPACITY = 4
+}
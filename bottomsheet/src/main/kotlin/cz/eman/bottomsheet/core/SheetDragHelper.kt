@@ -0,0 +1,793 @@
+package cz.eman.bottomsheet.core
+
+import android.util.Log
+import android.view.MotionEvent
+import android.view.VelocityTracker
+import android.view.View
+import android.view.ViewConfiguration
+import android.view.ViewGroup
+import androidx.core.view.ViewCompat
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+/**
+ * Drags and settles the sheet along the vertical axis. It is a reduced ViewDragHelper which keeps only the
+ * state the sheet needs: no edge tracking, no horizontal motion and two values of history per pointer
+ * kept in a buffer which is allocated once. Horizontal position of views is never changed.
+ *
+ * @param parent   parent of the dragged views, touch events are in its coordinates
+ * @param callback communication channel with the behavior
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal class SheetDragHelper(private val parent: ViewGroup, private val callback: Callback) {
+
+    /**
+     * Current drag state, one of [STATE_IDLE], [STATE_DRAGGING] or [STATE_SETTLING]
+     */
+    var viewDragState: Int = STATE_IDLE
+        private set
+
+    /**
+     * Minimal vertical distance in pixels the pointer has to travel before a drag starts
+     */
+    val touchSlop: Int
+
+    /**
+     * View being dragged or settled, null when idle
+     */
+    var capturedView: View? = null
+        private set
+
+    /**
+     * True while any pointer of the current gesture is down
+     */
+    val hasPointersDown: Boolean
+        get() = pointersDown != 0
+
+    private val maxVelocity: Float
+    private val minVelocity: Float
+
+    private var activePointerId = INVALID_POINTER
+    // Vertical position where each pointer went down and where it was last seen, packed in pairs indexed
+    // by pointer ID. Sized for every possible pointer, so no event ever grows it.
+    private val motionHistory = FloatArray(MAX_POINTERS * 2)
+    // Bit for every pointer ID which is down, only those have valid history
+    private var pointersDown: Int = 0
+
+    private var velocityTracker: VelocityTracker? = null
+    // Tracker owned and fed by the caller, see setVelocityTracker
+    private var externalVelocityTracker = false
+    // Computes settle animation against the frame time passed to continueSettling
+    private var settleEngine: SettleEngine = ScrollerSettleEngine()
+    // Frame times lag behind the current time, so a new settle is clocked again by its first frame
+    private var settleClockPending = false
+    private var settleVelocity = 0
+    private var settleDuration = 0
+    // Frame time the settle was last advanced to, position of the engine belongs to it
+    private var lastFrameTimeNanos = 0L
+    // Vertical position of views is kept in their translation instead of their layout
+    private var moveByTranslation = false
+    private var releaseInProgress = false
+    // Dragged view is moved ahead of the finger by the distance it travels in one frame
+    private var touchPrediction = false
+    // Prediction currently included in the position of the dragged view
+    private var predictionOffset = 0
+    // Last sample of the active pointer, prediction needs two samples to estimate the finger velocity
+    private var lastSampleY = 0f
+    private var lastSampleTime = NO_SAMPLE
+    private var frameIntervalMs = DEFAULT_FRAME_INTERVAL_MS
+    private val setIdleRunnable = Runnable { setDragState(STATE_IDLE) }
+
+    init {
+        val configuration = ViewConfiguration.get(parent.context)
+        touchSlop = configuration.scaledTouchSlop
+        maxVelocity = configuration.scaledMaximumFlingVelocity.toFloat()
+        minVelocity = configuration.scaledMinimumFlingVelocity.toFloat()
+    }
+
+    /**
+     * Sets the engine computing settle animations. The engine is used from the next settle on.
+     *
+     * @param engine engine used to settle views, it must not be shared with another helper
+     */
+    fun setSettleEngine(engine: SettleEngine) {
+        settleEngine = engine
+    }
+
+    /**
+     * Shares a velocity tracker with the caller. The caller owns the tracker, it has to add every event to
+     * it before passing the event to this helper and clear it when a new gesture starts. The helper then
+     * neither adds events to the tracker nor recycles it.
+     *
+     * @param tracker tracker fed by the caller, or null to let the helper track velocity
+     */
+    fun setVelocityTracker(tracker: VelocityTracker?) {
+        if (!externalVelocityTracker) {
+            velocityTracker?.recycle()
+        }
+        velocityTracker = tracker
+        externalVelocityTracker = tracker != null
+    }
+
+    /**
+     * Sets whether views are moved by their translation instead of their layout. Top positions reported
+     * to the [Callback] and used for hit testing include the translation then.
+     *
+     * @param enabled true to move views by changing their translation
+     */
+    fun setMoveByTranslation(enabled: Boolean) {
+        moveByTranslation = enabled
+    }
+
+    /**
+     * Sets whether the dragged view is moved ahead of the finger to where it is expected in the next frame.
+     * Finger velocity is estimated from historical samples of every move event, so it reflects the real
+     * timing of the samples rather than the batching of events. The view still settles from where it is.
+     *
+     * @param enabled true to predict finger position one frame ahead
+     */
+    fun setTouchPrediction(enabled: Boolean) {
+        touchPrediction = enabled
+        resetPrediction()
+    }
+
+    /**
+     * Captures given child for dragging, [Callback.tryCaptureView] is not asked.
+     *
+     * @param child     child of the parent to capture
+     * @param pointerId ID of the pointer dragging the child
+     */
+    fun captureChildView(child: View, pointerId: Int) {
+        require(child.parent === parent) {
+            "captureChildView: parameter must be a descendant of the tracked parent view ($parent)"
+        }
+        if (child !== capturedView || pointerId != activePointerId) {
+            resetPrediction()
+        }
+        capturedView = child
+        activePointerId = pointerId
+        setDragState(STATE_DRAGGING)
+    }
+
+    /**
+     * Forgets the running gesture, equivalent to receiving [MotionEvent.ACTION_CANCEL]
+     */
+    fun cancel() {
+        activePointerId = INVALID_POINTER
+        clearMotionHistory()
+        resetPrediction()
+        if (!externalVelocityTracker) {
+            velocityTracker?.recycle()
+            velocityTracker = null
+        }
+    }
+
+    /**
+     * Same as [cancel] and moves settling view to the end of its settle.
+     */
+    fun abort() {
+        cancel()
+        val view = capturedView
+        if (viewDragState == STATE_SETTLING && view != null) {
+            val oldTop = getViewTop(view)
+            settleEngine.abort()
+            val newTop = settleEngine.position
+            offsetViewTop(view, newTop - oldTop)
+            callback.onViewPositionChanged(view, newTop, newTop - oldTop)
+        }
+        setDragState(STATE_IDLE)
+    }
+
+    /**
+     * Starts settle of given child at given top. When true is returned, [continueSettling] has to be called
+     * on every following frame until it returns false.
+     *
+     * @param child       child to settle
+     * @param finalTop    top the child should settle at
+     * @param minDuration minimal duration of the settle in milliseconds
+     * @param yvel        current velocity of the child in px/s, positive when moving down
+     * @return true when the child is settling, false when it already is at given top
+     */
+    fun smoothSlideViewTo(child: View, finalTop: Int, minDuration: Int = -1, yvel: Int = 0): Boolean {
+        capturedView = child
+        activePointerId = INVALID_POINTER
+
+        val settling = forceSettleCapturedViewAt(finalTop, yvel, minDuration)
+        if (!settling && viewDragState == STATE_IDLE) {
+            capturedView = null
+        }
+        return settling
+    }
+
+    /**
+     * Settles the released view at given top using velocity of the gesture. Can be called only from
+     * [Callback.onViewReleased].
+     *
+     * @param finalTop top the captured view should settle at
+     * @return true when the view is settling, false when it already is at given top
+     */
+    fun settleCapturedViewAt(finalTop: Int): Boolean {
+        check(releaseInProgress) {
+            "Cannot settleCapturedViewAt outside of a call to Callback#onViewReleased"
+        }
+        return forceSettleCapturedViewAt(finalTop, velocityTracker!!.getYVelocity(activePointerId).toInt(), -1)
+    }
+
+    /**
+     * Changes final top of the view which is currently settling. The view keeps its current position and
+     * velocity and continues to the new top in one motion.
+     *
+     * @param finalTop new top the view should settle at
+     * @return true when a settle was running and has been retargeted
+     */
+    fun retargetSettle(finalTop: Int): Boolean {
+        val view = capturedView
+        if (viewDragState != STATE_SETTLING || view == null) {
+            return false
+        }
+        // Settle might have just finished, keep it running
+        parent.removeCallbacks(setIdleRunnable)
+        if (settleClockPending) {
+            // Settle was not advanced yet, it starts towards the new top with its first frame
+            val startTop = getViewTop(view)
+            settleDuration = maxOf(computeSettleDuration(view, finalTop - startTop, settleVelocity), settleDuration)
+            settleEngine.start(startTop, finalTop, settleVelocity.toFloat(), settleDuration, System.nanoTime())
+        } else {
+            settleEngine.retarget(finalTop, lastFrameTimeNanos)
+        }
+        return true
+    }
+
+    /**
+     * Moves settling view to its position in given frame.
+     *
+     * @param deferCallbacks true to post the change to idle state, needed when called during layout or draw
+     * @param frameTimeNanos vsync time of the current frame in [System.nanoTime] time base
+     * @return true when settle is still in progress
+     */
+    fun continueSettling(deferCallbacks: Boolean, frameTimeNanos: Long): Boolean {
+        val view = capturedView
+        if (viewDragState == STATE_SETTLING && view != null) {
+            if (settleClockPending) {
+                settleClockPending = false
+                // Settle starts one frame before the first frame it is advanced in, so that frame moves the view
+                settleEngine.start(
+                    getViewTop(view),
+                    settleEngine.finalPosition,
+                    settleVelocity.toFloat(),
+                    settleDuration,
+                    frameTimeNanos - (frameIntervalMs * NANOS_PER_MS).toLong()
+                )
+            }
+            lastFrameTimeNanos = frameTimeNanos
+            val keepGoing = settleEngine.computePosition(frameTimeNanos)
+            val top = settleEngine.position
+            val dy = top - getViewTop(view)
+            if (dy != 0) {
+                offsetViewTop(view, dy)
+                callback.onViewPositionChanged(view, top, dy)
+            }
+
+            if (!keepGoing) {
+                if (deferCallbacks) {
+                    parent.post(setIdleRunnable)
+                } else {
+                    setDragState(STATE_IDLE)
+                }
+            }
+        }
+        return viewDragState == STATE_SETTLING
+    }
+
+    /**
+     * Releases velocity tracker owned by the helper when no gesture is in progress, it is obtained again
+     * with the next touch. Pointer history is pre-sized and kept.
+     */
+    fun trimMemory() {
+        if (viewDragState != STATE_IDLE || pointersDown != 0) {
+            return
+        }
+        if (!externalVelocityTracker) {
+            velocityTracker?.recycle()
+            velocityTracker = null
+        }
+    }
+
+    /**
+     * @param ev event received by [ViewGroup.onInterceptTouchEvent] of the parent
+     * @return true when the parent should intercept the event stream
+     */
+    fun shouldInterceptTouchEvent(ev: MotionEvent): Boolean {
+        val action = ev.actionMasked
+        if (action == MotionEvent.ACTION_DOWN) {
+            // Start over, previous event stream might have been incomplete
+            cancel()
+        }
+        trackVelocity(ev)
+
+        when (action) {
+            MotionEvent.ACTION_DOWN -> {
+                val pointerId = ev.getPointerId(0)
+                saveInitialMotion(ev.y, pointerId)
+                // Catch a settling view if possible
+                val toCapture = findTopChildUnder(ev.x.toInt(), ev.y.toInt())
+                if (toCapture === capturedView && viewDragState == STATE_SETTLING) {
+                    tryCaptureViewForDrag(toCapture, pointerId)
+                }
+            }
+            MotionEvent.ACTION_POINTER_DOWN -> {
+                val index = ev.actionIndex
+                val pointerId = ev.getPointerId(index)
+                saveInitialMotion(ev.getY(index), pointerId)
+                if (viewDragState == STATE_SETTLING) {
+                    val toCapture = findTopChildUnder(ev.getX(index).toInt(), ev.getY(index).toInt())
+                    if (toCapture === capturedView) {
+                        tryCaptureViewForDrag(toCapture, pointerId)
+                    }
+                }
+            }
+            MotionEvent.ACTION_MOVE -> {
+                // First pointer to cross the touch slop over a draggable view wins
+                for (i in 0 until ev.pointerCount) {
+                    val pointerId = ev.getPointerId(i)
+                    if (!isValidPointerForActionMove(pointerId)) {
+                        continue
+                    }
+                    val y = ev.getY(i)
+                    val dy = y - getInitialMotionY(pointerId)
+                    val toCapture = findTopChildUnder(ev.getX(i).toInt(), y.toInt())
+                    if (toCapture == null || !checkTouchSlop(toCapture, dy)) {
+                        continue
+                    }
+                    // Do not intercept when the view would not move at all
+                    val oldTop = getViewTop(toCapture)
+                    val newTop = callback.clampViewPositionVertical(toCapture, oldTop + dy.toInt(), dy.toInt())
+                    if (newTop == oldTop) {
+                        break
+                    }
+                    if (tryCaptureViewForDrag(toCapture, pointerId)) {
+                        break
+                    }
+                }
+                saveLastMotion(ev)
+            }
+            MotionEvent.ACTION_POINTER_UP -> clearMotionHistory(ev.getPointerId(ev.actionIndex))
+            MotionEvent.ACTION_UP, MotionEvent.ACTION_CANCEL -> cancel()
+        }
+        return viewDragState == STATE_DRAGGING
+    }
+
+    /**
+     * Processes event received by [View.onTouchEvent] of the parent and dispatches callbacks.
+     *
+     * @param ev event received by the parent
+     */
+    fun processTouchEvent(ev: MotionEvent) {
+        val action = ev.actionMasked
+        if (action == MotionEvent.ACTION_DOWN) {
+            // Start over, previous event stream might have been incomplete
+            cancel()
+        }
+        trackVelocity(ev)
+
+        when (action) {
+            MotionEvent.ACTION_DOWN -> {
+                val pointerId = ev.getPointerId(0)
+                saveInitialMotion(ev.y, pointerId)
+                // Parent handles the event already, there is no reason to wait for the touch slop
+                tryCaptureViewForDrag(findTopChildUnder(ev.x.toInt(), ev.y.toInt()), pointerId)
+            }
+            MotionEvent.ACTION_POINTER_DOWN -> {
+                val index = ev.actionIndex
+                val pointerId = ev.getPointerId(index)
+                val x = ev.getX(index).toInt()
+                val y = ev.getY(index)
+                saveInitialMotion(y, pointerId)
+                if (viewDragState == STATE_IDLE) {
+                    tryCaptureViewForDrag(findTopChildUnder(x, y.toInt()), pointerId)
+                } else if (isViewUnder(capturedView, x, y.toInt())) {
+                    // New pointer over the captured view takes control of it
+                    tryCaptureViewForDrag(capturedView, pointerId)
+                }
+            }
+            MotionEvent.ACTION_MOVE -> {
+                if (viewDragState == STATE_DRAGGING) {
+                    if (isValidPointerForActionMove(activePointerId)) {
+                        val index = ev.findPointerIndex(activePointerId)
+                        var dy = (ev.getY(index) - getLastMotionY(activePointerId)).toInt()
+                        if (touchPrediction) {
+                            val prediction = predictOffset(ev, index)
+                            dy += prediction - predictionOffset
+                            predictionOffset = prediction
+                        }
+                        dragBy(dy)
+                        saveLastMotion(ev)
+                    }
+                } else {
+                    // Check whether any pointer is over a draggable view now
+                    for (i in 0 until ev.pointerCount) {
+                        val pointerId = ev.getPointerId(i)
+                        if (!isValidPointerForActionMove(pointerId)) {
+                            continue
+                        }
+                        val y = ev.getY(i)
+                        val toCapture = findTopChildUnder(ev.getX(i).toInt(), y.toInt())
+                        if (toCapture != null && checkTouchSlop(toCapture, y - getInitialMotionY(pointerId)) &&
+                            tryCaptureViewForDrag(toCapture, pointerId)
+                        ) {
+                            break
+                        }
+                    }
+                    saveLastMotion(ev)
+                }
+            }
+            MotionEvent.ACTION_POINTER_UP -> {
+                val pointerId = ev.getPointerId(ev.actionIndex)
+                if (viewDragState == STATE_DRAGGING && pointerId == activePointerId) {
+                    // Try to find another pointer still holding the captured view
+                    var handedOver = false
+                    for (i in 0 until ev.pointerCount) {
+                        val id = ev.getPointerId(i)
+                        if (id == activePointerId) {
+                            continue
+                        }
+                        if (findTopChildUnder(ev.getX(i).toInt(), ev.getY(i).toInt()) === capturedView &&
+                            tryCaptureViewForDrag(capturedView, id)
+                        ) {
+                            handedOver = true
+                            break
+                        }
+                    }
+                    if (!handedOver) {
+                        releaseViewForPointerUp()
+                    }
+                }
+                clearMotionHistory(pointerId)
+            }
+            MotionEvent.ACTION_UP -> {
+                if (viewDragState == STATE_DRAGGING) {
+                    releaseViewForPointerUp()
+                }
+                cancel()
+            }
+            MotionEvent.ACTION_CANCEL -> {
+                if (viewDragState == STATE_DRAGGING) {
+                    dispatchViewReleased(0f)
+                }
+                cancel()
+            }
+        }
+    }
+
+    /**
+     * @param view child of the parent to test, may be null
+     * @param x    horizontal position in parent coordinates
+     * @param y    vertical position in parent coordinates
+     * @return true when given view is under given point
+     */
+    fun isViewUnder(view: View?, x: Int, y: Int): Boolean {
+        if (view == null) {
+            return false
+        }
+        val top = getViewTop(view)
+        return x >= view.left && x < view.right && y >= top && y < top + view.height
+    }
+
+    /**
+     * @param x horizontal position in parent coordinates
+     * @param y vertical position in parent coordinates
+     * @return topmost child under given point or null when there is none
+     */
+    fun findTopChildUnder(x: Int, y: Int): View? {
+        for (i in parent.childCount - 1 downTo 0) {
+            val child = parent.getChildAt(i)
+            if (isViewUnder(child, x, y)) {
+                return child
+            }
+        }
+        return null
+    }
+
+    private fun getViewTop(view: View): Int {
+        return if (moveByTranslation) view.top + view.translationY.roundToInt() else view.top
+    }
+
+    private fun offsetViewTop(view: View, dy: Int) {
+        if (moveByTranslation) {
+            view.translationY += dy
+        } else {
+            ViewCompat.offsetTopAndBottom(view, dy)
+        }
+    }
+
+    /**
+     * @param ev    move event of the active pointer
+     * @param index index of the active pointer in the event
+     * @return distance the finger travels in one frame at its current velocity
+     */
+    private fun predictOffset(ev: MotionEvent, index: Int): Int {
+        val y = ev.getY(index)
+        val time = ev.eventTime
+        // Oldest sample batched into this event, or the last one of the previous event
+        val fromY: Float
+        val fromTime: Long
+        if (ev.historySize > 0) {
+            fromY = ev.getHistoricalY(index, 0)
+            fromTime = ev.getHistoricalEventTime(0)
+        } else {
+            fromY = lastSampleY
+            fromTime = lastSampleTime
+        }
+        lastSampleY = y
+        lastSampleTime = time
+        if (fromTime == NO_SAMPLE || time <= fromTime) {
+            return predictionOffset
+        }
+        val offset = ((y - fromY) / (time - fromTime) * frameIntervalMs).roundToInt()
+        // Sudden stops overshoot by the prediction, keep it within the touch slop
+        return offset.coerceIn(-touchSlop, touchSlop)
+    }
+
+    private fun resetPrediction() {
+        predictionOffset = 0
+        lastSampleTime = NO_SAMPLE
+        val refreshRate = parent.display?.refreshRate ?: 0f
+        frameIntervalMs = if (refreshRate > 0) 1000f / refreshRate else DEFAULT_FRAME_INTERVAL_MS
+    }
+
+    private fun trackVelocity(ev: MotionEvent) {
+        if (!externalVelocityTracker) {
+            val tracker = velocityTracker ?: VelocityTracker.obtain().also { velocityTracker = it }
+            tracker.addMovement(ev)
+        }
+    }
+
+    private fun forceSettleCapturedViewAt(finalTop: Int, yvel: Int, minDuration: Int): Boolean {
+        val view = capturedView!!
+        val startTop = getViewTop(view)
+        val dy = finalTop - startTop
+        if (dy == 0) {
+            setDragState(STATE_IDLE)
+            return false
+        }
+
+        val duration = maxOf(computeSettleDuration(view, dy, yvel), minDuration)
+        // Started now so the final position is known at once, clocked again by the first frame
+        settleEngine.start(startTop, finalTop, yvel.toFloat(), duration, System.nanoTime())
+        settleClockPending = true
+        settleVelocity = yvel
+        settleDuration = duration
+        setDragState(STATE_SETTLING)
+        return true
+    }
+
+    private fun computeSettleDuration(view: View, dy: Int, yvel: Int): Int {
+        val velocity = abs(clampMag(yvel.toFloat(), minVelocity, maxVelocity))
+        // Distance is related to the parent width, so settles keep the timing of the generic helper
+        val width = parent.width
+        val halfWidth = width / 2
+        val distanceRatio = min(1f, abs(dy).toFloat() / width)
+        val distance = halfWidth + halfWidth * distanceInfluenceForSnapDuration(distanceRatio)
+
+        val duration = if (velocity > 0) {
+            4 * (1000 * abs(distance / velocity)).roundToInt()
+        } else {
+            val range = abs(dy).toFloat() / callback.getViewVerticalDragRange(view)
+            ((range + 1) * BASE_SETTLE_DURATION).toInt()
+        }
+        return min(duration, MAX_SETTLE_DURATION)
+    }
+
+    private fun distanceInfluenceForSnapDuration(fraction: Float): Float {
+        // Center the values about 0
+        return sin((fraction - 0.5f) * 0.3f * PI.toFloat() / 2f)
+    }
+
+    private fun clampMag(value: Float, absMin: Float, absMax: Float): Float {
+        val absValue = abs(value)
+        return when {
+            absValue < absMin -> 0f
+            absValue > absMax -> if (value > 0) absMax else -absMax
+            else -> value
+        }
+    }
+
+    private fun dragBy(dy: Int) {
+        val view = capturedView ?: return
+        if (dy == 0) {
+            return
+        }
+        val oldTop = getViewTop(view)
+        val newTop = callback.clampViewPositionVertical(view, oldTop + dy, dy)
+        if (newTop != oldTop) {
+            offsetViewTop(view, newTop - oldTop)
+            callback.onViewPositionChanged(view, newTop, newTop - oldTop)
+        }
+    }
+
+    private fun releaseViewForPointerUp() {
+        val tracker = velocityTracker!!
+        tracker.computeCurrentVelocity(1000, maxVelocity)
+        dispatchViewReleased(clampMag(tracker.getYVelocity(activePointerId), minVelocity, maxVelocity))
+    }
+
+    /**
+     * [settleCapturedViewAt] may be called only while the release is dispatched
+     */
+    private fun dispatchViewReleased(yvel: Float) {
+        releaseInProgress = true
+        callback.onViewReleased(capturedView!!, yvel)
+        releaseInProgress = false
+
+        if (viewDragState == STATE_DRAGGING) {
+            // Callback did not settle the view, it stops where it is
+            setDragState(STATE_IDLE)
+        }
+    }
+
+    private fun setDragState(state: Int) {
+        parent.removeCallbacks(setIdleRunnable)
+        if (viewDragState != state) {
+            viewDragState = state
+            callback.onViewDragStateChanged(state)
+            if (state == STATE_IDLE) {
+                capturedView = null
+            }
+        }
+    }
+
+    private fun tryCaptureViewForDrag(toCapture: View?, pointerId: Int): Boolean {
+        if (toCapture === capturedView && activePointerId == pointerId) {
+            return true
+        }
+        if (toCapture != null && callback.tryCaptureView(toCapture, pointerId)) {
+            captureChildView(toCapture, pointerId)
+            return true
+        }
+        return false
+    }
+
+    private fun checkTouchSlop(view: View, dy: Float): Boolean {
+        return callback.getViewVerticalDragRange(view) > 0 && abs(dy) > touchSlop
+    }
+
+    private fun getInitialMotionY(pointerId: Int): Float = motionHistory[pointerId * 2]
+
+    private fun getLastMotionY(pointerId: Int): Float = motionHistory[pointerId * 2 + 1]
+
+    private fun saveInitialMotion(y: Float, pointerId: Int) {
+        if (pointerId >= MAX_POINTERS) {
+            return
+        }
+        motionHistory[pointerId * 2] = y
+        motionHistory[pointerId * 2 + 1] = y
+        pointersDown = pointersDown or (1 shl pointerId)
+    }
+
+    private fun saveLastMotion(ev: MotionEvent) {
+        for (i in 0 until ev.pointerCount) {
+            val pointerId = ev.getPointerId(i)
+            if (isPointerDown(pointerId)) {
+                motionHistory[pointerId * 2 + 1] = ev.getY(i)
+            }
+        }
+    }
+
+    private fun clearMotionHistory() {
+        // Visit only pointers which are down, the rest of the history is cleared already
+        var down = pointersDown
+        while (down != 0) {
+            val pointerId = Integer.numberOfTrailingZeros(down)
+            motionHistory[pointerId * 2] = 0f
+            motionHistory[pointerId * 2 + 1] = 0f
+            down = down and (down - 1)
+        }
+        pointersDown = 0
+    }
+
+    private fun clearMotionHistory(pointerId: Int) {
+        if (!isPointerDown(pointerId)) {
+            return
+        }
+        motionHistory[pointerId * 2] = 0f
+        motionHistory[pointerId * 2 + 1] = 0f
+        pointersDown = pointersDown and (1 shl pointerId).inv()
+    }
+
+    private fun isPointerDown(pointerId: Int): Boolean {
+        return pointerId in 0 until MAX_POINTERS && pointersDown and (1 shl pointerId) != 0
+    }
+
+    private fun isValidPointerForActionMove(pointerId: Int): Boolean {
+        if (!isPointerDown(pointerId)) {
+            // Constant message, so even a broken event stream does not allocate
+            Log.e(TAG, "Ignoring pointer because ACTION_DOWN was not received for it before ACTION_MOVE.")
+            return false
+        }
+        return true
+    }
+
+    /**
+     * Communication channel of the helper with the behavior
+     */
+    abstract class Callback {
+
+        /**
+         * @param state new drag state, see STATE_ constants
+         */
+        open fun onViewDragStateChanged(state: Int) {}
+
+        /**
+         * @param changedView view moved by drag or settle
+         * @param top         new top of the view including its translation when moved by translation
+         * @param dy          change of the top since the last call
+         */
+        open fun onViewPositionChanged(changedView: View, top: Int, dy: Int) {}
+
+        /**
+         * Called when the view is no longer dragged. The view may be settled by [settleCapturedViewAt],
+         * otherwise it stays where it is.
+         *
+         * @param releasedChild view which was dragged
+         * @param yvel          vertical velocity in px/s, zero when below the minimal fling velocity
+         */
+        open fun onViewReleased(releasedChild: View, yvel: Float) {}
+
+        /**
+         * @param child view to check
+         * @return vertical range of motion of given view in pixels, 0 when it can not be dragged
+         */
+        open fun getViewVerticalDragRange(child: View): Int = 0
+
+        /**
+         * @param child     view the pointer wants to drag
+         * @param pointerId ID of the pointer
+         * @return true when the view may be dragged by the pointer
+         */
+        abstract fun tryCaptureView(child: View, pointerId: Int): Boolean
+
+        /**
+         * @param child view being dragged
+         * @param top   top the view would move to
+         * @param dy    proposed change of the top
+         * @return top the view should move to
+         */
+        abstract fun clampViewPositionVertical(child: View, top: Int, dy: Int): Int
+    }
+
+    companion object {
+        private const val TAG = "SheetDragHelper"
+
+        // Pointer IDs range from 0 to MotionEvent's MAX_POINTER_ID, one bit of the pointer mask each
+        private const val MAX_POINTERS = 32
+
+        const val INVALID_POINTER = -1
+
+        /**
+         * No view is dragged or settled
+         */
+        const val STATE_IDLE = 0
+
+        /**
+         * View is dragged by a pointer
+         */
+        const val STATE_DRAGGING = 1
+
+        /**
+         * View is settling after release or on request
+         */
+        const val STATE_SETTLING = 2
+
+        private const val NO_SAMPLE = -1L
+        private const val DEFAULT_FRAME_INTERVAL_MS = 1000f / 60
+        private const val NANOS_PER_MS = 1_000_000f
+
+        private const val BASE_SETTLE_DURATION = 256 // ms
+        private const val MAX_SETTLE_DURATION = 600 // ms
+    }
+}
@@ -0,0 +1,122 @@
+package cz.eman.bottomsheet.core
+
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * [SettleEngine] driven by a critically damped spring. Settle starts with the velocity the sheet was
+ * released with, so fast flings settle in fewer frames than slow drags, and it can be retargeted at any
+ * time without a jump in velocity. The sheet never overshoots its final position.
+ *
+ * @param stiffness stiffness of the spring, higher values settle faster
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+class SpringSettleEngine @JvmOverloads constructor(stiffness: Float = STIFFNESS_MEDIUM) : SettleEngine {
+
+    private val naturalFrequency = sqrt(stiffness)
+
+    override var position: Int = 0
+        private set
+
+    override var finalPosition: Int = 0
+        private set
+
+    // Displacement from final position and velocity at start time, in px and px/s
+    private var startDisplacement: Float = 0f
+    private var startVelocity: Float = 0f
+    private var startTime: Long = 0
+    private var running: Boolean = false
+
+    override fun start(
+        startPosition: Int,
+        finalPosition: Int,
+        velocity: Float,
+        durationMs: Int,
+        startTimeNanos: Long
+    ) {
+        this.finalPosition = finalPosition
+        position = startPosition
+        startDisplacement = (startPosition - finalPosition).toFloat()
+        startVelocity = velocity
+        startTime = startTimeNanos
+        running = true
+    }
+
+    override fun retarget(finalPosition: Int, frameTimeNanos: Long) {
+        val t = elapsedSeconds(frameTimeNanos)
+        val currentPosition = if (running) this.finalPosition + displacementAt(t) else position.toFloat()
+        val velocity = if (running) velocityAt(t) else 0f
+
+        this.finalPosition = finalPosition
+        startDisplacement = currentPosition - finalPosition
+        startVelocity = velocity
+        startTime = frameTimeNanos
+        running = true
+    }
+
+    override fun computePosition(frameTimeNanos: Long): Boolean {
+        if (!running) {
+            return false
+        }
+
+        val t = elapsedSeconds(frameTimeNanos)
+        val displacement = displacementAt(t)
+        val velocity = velocityAt(t)
+
+        // Critically damped spring crosses final position at most once, stop there instead of overshooting
+        val crossed = startDisplacement != 0f && displacement != 0f && (displacement > 0) != (startDisplacement > 0)
+        if (crossed || abs(displacement) < REST_DISPLACEMENT && abs(velocity) < REST_VELOCITY) {
+            abort()
+            return false
+        }
+
+        position = finalPosition + displacement.roundToInt()
+        return true
+    }
+
+    override fun abort() {
+        position = finalPosition
+        running = false
+    }
+
+    private fun elapsedSeconds(frameTimeNanos: Long): Float {
+        return (frameTimeNanos - startTime).coerceAtLeast(0L) / NANOS_PER_SECOND
+    }
+
+    /**
+     * x(t) = (x0 + (v0 + w * x0) * t) * e^(-w * t)
+     */
+    private fun displacementAt(t: Float): Float {
+        val w = naturalFrequency
+        return (startDisplacement + (startVelocity + w * startDisplacement) * t) * exp(-w * t)
+    }
+
+    /**
+     * v(t) = (v0 - w * (v0 + w * x0) * t) * e^(-w * t)
+     */
+    private fun velocityAt(t: Float): Float {
+        val w = naturalFrequency
+        return (startVelocity - w * (startVelocity + w * startDisplacement) * t) * exp(-w * t)
+    }
+
+    companion object {
+
+        /**
+         * Stiffness which settles sheet across the whole screen in roughly 250 ms
+         */
+        const val STIFFNESS_MEDIUM = 1500f
+
+        /**
+         * Stiffness for snappier settles
+         */
+        const val STIFFNESS_HIGH = 10000f
+
+        private const val NANOS_PER_SECOND = 1_000_000_000f
+
+        private const val REST_DISPLACEMENT = 0.5f // px
+        private const val REST_VELOCITY = 50f // px/s
+    }
+}
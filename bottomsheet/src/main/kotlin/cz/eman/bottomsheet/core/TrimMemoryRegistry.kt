@@ -0,0 +1,101 @@
+package cz.eman.bottomsheet.core
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import java.lang.ref.WeakReference
+
+/**
+ * Single [ComponentCallbacks2] registered to the application which forwards memory trimming to all
+ * sheet components. Clients are held weakly, so a component which is never unregistered does not
+ * leak. Must be used from the main thread only.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal object TrimMemoryRegistry : ComponentCallbacks2 {
+
+    /**
+     * Component holding resources which can be recreated later
+     */
+    interface Client {
+
+        /**
+         * Releases idle resources, they have to be recreated lazily once needed again.
+         *
+         * @param level level passed to [ComponentCallbacks2.onTrimMemory]
+         */
+        fun trimMemory(level: Int)
+    }
+
+    private val clients = ArrayList<WeakReference<Client>>()
+    private var registered = false
+
+    /**
+     * Starts forwarding memory trimming to given client. Clients which were garbage collected are dropped, so
+     * the list does not grow in a process which is never asked to trim memory.
+     *
+     * @param context any context, application one is used for registration
+     * @param client  client to add
+     */
+    fun register(context: Context, client: Client) {
+        if (!registered) {
+            context.applicationContext.registerComponentCallbacks(this)
+            registered = true
+        }
+        clients.removeAll { it.get() == null }
+        if (indexOf(client) < 0) {
+            clients.add(WeakReference(client))
+        }
+    }
+
+    /**
+     * Stops forwarding memory trimming to given client.
+     *
+     * @param client client to remove
+     */
+    fun unregister(client: Client) {
+        val index = indexOf(client)
+        if (index >= 0) {
+            clients.removeAt(index)
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        // Keep resources while app is visible and memory is not running low
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return
+        }
+        dispatch(level)
+    }
+
+    override fun onLowMemory() {
+        dispatch(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        // Nothing to do
+    }
+
+    private fun dispatch(level: Int) {
+        var i = 0
+        while (i < clients.size) {
+            val client = clients[i].get()
+            if (client == null) {
+                clients.removeAt(i)
+            } else {
+                client.trimMemory(level)
+                i++
+            }
+        }
+    }
+
+    private fun indexOf(client: Client): Int {
+        for (i in clients.indices) {
+            if (clients[i].get() === client) {
+                return i
+            }
+        }
+        return -1
+    }
+}
@@ -34,7 +34,12 @@ import java.util.Arrays;
  * ViewDragHelper is a utility class for writing custom ViewGroups. It offers a number
  * of useful operations and state tracking for allowing a user to drag and reposition
  * views within their parent ViewGroup.
+ *
+ * @deprecated Sheet is dragged by its own vertical-only helper since 1.1.0 and this class is no longer
+ * used by the library. Use {@link androidx.customview.widget.ViewDragHelper} instead, this class will be
+ * removed in the next major version.
  */
+@Deprecated
 public class ViewDragHelper {
     /**
      * A null/invalid pointer ID.
@@ -0,0 +1,57 @@
+package cz.eman.bottomsheet.manipulation
+
+import android.view.View
+
+/**
+ * Keeps hardware layers on views for the whole gesture. Layers are built when the first interactive
+ * state starts and released once the sheet comes to rest, so switching between dragging and settling
+ * does not rebuild them. Views which already have a layer set by someone else are left untouched.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal class HardwareLayerPolicy {
+
+    private val layeredViews = ArrayList<View>(2)
+
+    /**
+     * Number of layers built during the running gesture
+     */
+    var gestureLayerCount: Int = 0
+        private set
+
+    /**
+     * Number of layers built during the last finished gesture
+     */
+    var lastGestureLayerCount: Int = 0
+        private set
+
+    /**
+     * Builds hardware layer for given view unless it already has one.
+     *
+     * @param view view to layer
+     */
+    fun layer(view: View) {
+        if (view.layerType != View.LAYER_TYPE_NONE) {
+            return
+        }
+        view.setLayerType(View.LAYER_TYPE_HARDWARE, null)
+        layeredViews.add(view)
+        gestureLayerCount++
+    }
+
+    /**
+     * Releases all layers built by this policy and finishes the gesture.
+     */
+    fun release() {
+        if (layeredViews.isEmpty() && gestureLayerCount == 0) {
+            return
+        }
+        for (i in layeredViews.indices) {
+            layeredViews[i].setLayerType(View.LAYER_TYPE_NONE, null)
+        }
+        layeredViews.clear()
+        lastGestureLayerCount = gestureLayerCount
+        gestureLayerCount = 0
+    }
+}
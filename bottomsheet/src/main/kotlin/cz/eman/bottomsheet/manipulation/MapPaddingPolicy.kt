@@ -0,0 +1,46 @@
+package cz.eman.bottomsheet.manipulation
+
+/**
+ * Controls how often [SheetsHelperView.setMapPadding] is called while the sheet moves. Every padding
+ * change makes the map re-project and re-render, so it may be throttled during drags and settles.
+ * Translations of map and bottom items are not affected.
+ *
+ * @param minDeltaPx          padding is updated only when it changes by at least this many pixels
+ * @param maxUpdatesPerSecond padding is updated at most this many times per second, 0 for no limit
+ * @param applyFinalOnSettle  true to apply exact padding once the sheet stops moving
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+class MapPaddingPolicy @JvmOverloads constructor(
+    val minDeltaPx: Int = 0,
+    val maxUpdatesPerSecond: Int = 0,
+    val applyFinalOnSettle: Boolean = true
+) {
+
+    init {
+        require(minDeltaPx >= 0) { "minDeltaPx must not be negative" }
+        require(maxUpdatesPerSecond >= 0) { "maxUpdatesPerSecond must not be negative" }
+    }
+
+    /**
+     * @param deltaPx       biggest change of any padding side since the last update
+     * @param elapsedMillis time since the last update
+     * @return true when padding should be updated while sheet moves
+     */
+    internal fun shouldUpdate(deltaPx: Int, elapsedMillis: Long): Boolean {
+        if (deltaPx == 0 || deltaPx < minDeltaPx) {
+            return false
+        }
+        return maxUpdatesPerSecond == 0 || elapsedMillis * maxUpdatesPerSecond >= 1000
+    }
+
+    companion object {
+
+        /**
+         * Padding follows the sheet on every frame
+         */
+        @JvmField
+        val EVERY_FRAME = MapPaddingPolicy()
+    }
+}
@@ -0,0 +1,28 @@
+package cz.eman.bottomsheet.manipulation
+
+/**
+ * What [SheetsHelper] does with the map while the sheet is expanded and covers it.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+enum class MapRetention {
+
+    /**
+     * Map is hidden through [SheetsHelperView.setMapVisible], it is measured and rendered from scratch
+     * once the sheet collapses
+     */
+    REMOVE,
+
+    /**
+     * Map container is kept laid out but [android.view.View.INVISIBLE] and
+     * [MapRetentionView.setMapRenderingPaused] is called, so it is shown again without re-measuring
+     */
+    KEEP_INVISIBLE,
+
+    /**
+     * Map is hidden like with [REMOVE] but snapshot of its last frame covers it while the sheet collapses,
+     * until the sheet settles. Snapshot is released under memory pressure.
+     */
+    SNAPSHOT
+}
@@ -0,0 +1,30 @@
+package cz.eman.bottomsheet.manipulation
+
+import android.graphics.Canvas
+
+/**
+ * Optional interface of [SheetsHelperView] which lets the map take part in [MapRetention]. It is kept
+ * apart from [SheetsHelperView], so existing implementations of it do not have to change. Without it,
+ * rendering of the map is not paused and snapshots draw the map container.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+interface MapRetentionView {
+
+    /**
+     * Called instead of [SheetsHelperView.setMapVisible] with [MapRetention.KEEP_INVISIBLE], map should
+     * stop rendering while it is paused
+     *
+     * @param paused true when map is covered by expanded sheet
+     */
+    fun setMapRenderingPaused(paused: Boolean)
+
+    /**
+     * Draws current map content for [MapRetention.SNAPSHOT], needed when map renders into a surface which
+     * is not captured by drawing the map container.
+     *
+     * @param canvas canvas of the size of map container
+     */
+    fun drawMapSnapshot(canvas: Canvas)
+}
@@ -0,0 +1,83 @@
+package cz.eman.bottomsheet.manipulation
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.drawable.BitmapDrawable
+import android.view.View
+
+/**
+ * Bitmap of the last map frame drawn in overlay of the map container, above the live map which is
+ * not rendered yet. Bitmap is reused between captures of the same size.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal class MapSnapshot {
+
+    private var bitmap: Bitmap? = null
+    private var drawable: BitmapDrawable? = null
+    private var host: View? = null
+
+    /**
+     * Draws current content of map into the snapshot.
+     *
+     * @param map    map container
+     * @param drawer draws map into given canvas
+     * @return true when snapshot was captured
+     */
+    fun capture(map: View, drawer: (Canvas) -> Unit): Boolean {
+        val width = map.width
+        val height = map.height
+        if (width == 0 || height == 0) {
+            return false
+        }
+
+        var bitmap = this.bitmap
+        if (bitmap == null || bitmap.width != width || bitmap.height != height) {
+            release()
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+            this.bitmap = bitmap
+            drawable = BitmapDrawable(map.resources, bitmap)
+        } else {
+            bitmap.eraseColor(0)
+        }
+        drawer(Canvas(bitmap!!))
+        return true
+    }
+
+    /**
+     * Shows captured snapshot at the position of the map, does nothing when there is no snapshot.
+     *
+     * @param map map container
+     */
+    fun show(map: View) {
+        val drawable = this.drawable ?: return
+        hide()
+        host = map
+        drawable.setBounds(0, 0, map.width, map.height)
+        map.overlay.add(drawable)
+    }
+
+    /**
+     * Removes snapshot from the screen, bitmap is kept for the next capture
+     */
+    fun hide() {
+        drawable?.let { host?.overlay?.remove(it) }
+        host = null
+    }
+
+    /**
+     * Hides snapshot and releases its bitmap.
+     *
+     * @return number of bytes released
+     */
+    fun release(): Int {
+        hide()
+        val bitmap = this.bitmap ?: return 0
+        val bytes = bitmap.allocationByteCount
+        bitmap.recycle()
+        this.bitmap = null
+        drawable = null
+        return bytes
+    }
+}
@@ -0,0 +1,117 @@
+package cz.eman.bottomsheet.manipulation
+
+/**
+ * Everything [SheetsHelper] changes on [SheetsHelperView] for one position of the sheet. Instance is
+ * reused between frames, values are diffed against the previously delivered ones and [changes] tells
+ * which of them differ. Frame without any change is not delivered at all.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+class SheetFrame internal constructor() {
+
+    var mapPaddingLeft: Int = 0
+        private set
+    var mapPaddingTop: Int = 0
+        private set
+    var mapPaddingRight: Int = 0
+        private set
+    var mapPaddingBottom: Int = 0
+        private set
+
+    /**
+     * Translation of map container, creates parallax effect
+     */
+    var mapTranslationY: Int = 0
+        private set
+
+    /**
+     * Translation of views registered as bottom items
+     */
+    var bottomItemsTranslationY: Int = 0
+        private set
+
+    var statusBarColor: Int = 0
+        private set
+
+    /**
+     * Flags of values changed since the last delivered frame, see [CHANGED_MAP_PADDING] and others
+     */
+    var changes: Int = 0
+        private set
+
+    // Values not delivered yet at all, they are reported as changed regardless of their value
+    private var unknown: Int = CHANGED_ALL
+
+    /**
+     * @param flag one of CHANGED_ flags
+     * @return true when value marked by flag differs from the previous frame
+     */
+    fun hasChanged(flag: Int): Boolean = changes and flag != 0
+
+    internal fun setMapPadding(left: Int, top: Int, right: Int, bottom: Int) {
+        if (consumeUnknown(CHANGED_MAP_PADDING) || left != mapPaddingLeft || top != mapPaddingTop ||
+            right != mapPaddingRight || bottom != mapPaddingBottom
+        ) {
+            mapPaddingLeft = left
+            mapPaddingTop = top
+            mapPaddingRight = right
+            mapPaddingBottom = bottom
+            changes = changes or CHANGED_MAP_PADDING
+        }
+    }
+
+    internal fun setMapTranslationY(translationY: Int) {
+        if (consumeUnknown(CHANGED_MAP_TRANSLATION) || translationY != mapTranslationY) {
+            mapTranslationY = translationY
+            changes = changes or CHANGED_MAP_TRANSLATION
+        }
+    }
+
+    internal fun setBottomItemsTranslationY(translationY: Int) {
+        if (consumeUnknown(CHANGED_BOTTOM_ITEMS) || translationY != bottomItemsTranslationY) {
+            bottomItemsTranslationY = translationY
+            changes = changes or CHANGED_BOTTOM_ITEMS
+        }
+    }
+
+    internal fun setStatusBarColor(color: Int) {
+        if (consumeUnknown(CHANGED_STATUS_BAR_COLOR) || color != statusBarColor) {
+            statusBarColor = color
+            changes = changes or CHANGED_STATUS_BAR_COLOR
+        }
+    }
+
+    /**
+     * Marks frame as delivered, must be called after every delivered frame
+     */
+    internal fun commit() {
+        changes = 0
+    }
+
+    /**
+     * Forgets delivered values, so all of them are delivered again once they are set. Used when someone
+     * else might have changed them meanwhile.
+     */
+    internal fun invalidate() {
+        unknown = CHANGED_ALL
+    }
+
+    private fun consumeUnknown(flag: Int): Boolean {
+        if (unknown and flag == 0) {
+            return false
+        }
+        unknown = unknown and flag.inv()
+        return true
+    }
+
+    companion object {
+        const val CHANGED_MAP_PADDING = 1
+        const val CHANGED_MAP_TRANSLATION = 1 shl 1
+        const val CHANGED_BOTTOM_ITEMS = 1 shl 2
+        const val CHANGED_STATUS_BAR_COLOR = 1 shl 3
+
+        private const val CHANGED_ALL = CHANGED_MAP_PADDING or CHANGED_MAP_TRANSLATION or
+                CHANGED_BOTTOM_ITEMS or CHANGED_STATUS_BAR_COLOR
+    }
+}
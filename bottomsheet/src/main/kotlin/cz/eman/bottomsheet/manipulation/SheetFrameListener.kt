@@ -0,0 +1,22 @@
+package cz.eman.bottomsheet.manipulation
+
+/**
+ * Optional interface of [SheetsHelperView] which applies all changes caused by sheet movement at once.
+ * It is kept apart from [SheetsHelperView], so existing implementations of it do not have to change.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+interface SheetFrameListener {
+
+    /**
+     * Called at most once per frame with all changes caused by sheet movement, frame without any change
+     * is not delivered. Return false to let helper apply changed values through
+     * [SheetsHelperView.setMapPadding], [SheetsHelperView.setStatusBarColor] and translations of map
+     * container and bottom items.
+     *
+     * @param frame values for current position of sheet, use [SheetFrame.hasChanged] to find changed ones
+     * @return true when frame was applied
+     */
+    fun onSheetFrame(frame: SheetFrame): Boolean
+}
@@ -3,15 +3,20 @@ package cz.eman.bottomsheet.manipulation
 import android.content.Context
 import androidx.core.view.ViewCompat
 import android.view.View
+import android.view.ViewTreeObserver
+import android.view.animation.AnimationUtils
 
 import cz.eman.bottomsheet.R
 import cz.eman.bottomsheet.core.BottomSheet
 import cz.eman.bottomsheet.core.BottomSheetCallback
 import cz.eman.bottomsheet.core.BottomSheetState
+import cz.eman.bottomsheet.core.TrimMemoryRegistry
 import cz.eman.bottomsheet.utils.getStatusBarHeight
 import cz.eman.bottomsheet.utils.getToolbarHeight
+import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
+import kotlin.math.roundToInt
 
 /**
  * @author eMan s.r.o.
@@ -25,18 +30,85 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
     private var collapsedHeight: Int = 0
     private var semiCollapsedHeight: Int = 0
 
+    // All heights sheet can be collapsed to, null when only collapsed and semi collapsed heights are used
+    private var collapsedHeights: IntArray? = null
+
     private var mapTopPadding: Int = 0
 
     private var currentSheet: BottomSheet? = null
 
     private var bottomSheetView: View? = null
 
+    private val sheetCallback = getDefaultCallback()
+
+    // Sheet waiting for its first layout to get initial map padding
+    private var paddingPendingView: View? = null
+    private val paddingPreDrawListener = ViewTreeObserver.OnPreDrawListener {
+        paddingPendingView?.let {
+            // Behavior offsets the sheet after its layout, before draw it is in its final position
+            if (ViewCompat.isLaidOut(it)) {
+                cancelPendingPadding()
+                setMapPaddingAndTranslation(it, collapsedHeight, semiCollapsedHeight, false)
+                dispatchFrame()
+            }
+        }
+        true
+    }
+
+    // Values delivered to sheetsHelperView, updated and diffed on every slide
+    private val frame = SheetFrame()
+    private var bottomItems: Array<View> = NO_BOTTOM_ITEMS
+
+    private var mapPaddingPolicy = MapPaddingPolicy.EVERY_FRAME
+    private var mapPaddingUpdateTime: Long = 0
+
+    private val statusBarColors = StatusBarColorTable()
+    private var statusBarWriteCount: Int = 0
+    private var darkStatusBarIcons = false
+    private var darkStatusBarIconsApplied = false
+
+    private var mapRetention = MapRetention.REMOVE
+    private var mapShown = true
+    private val mapSnapshot = MapSnapshot()
+    private val trimMemoryClient = object : TrimMemoryRegistry.Client {
+        override fun trimMemory(level: Int) = releaseIdleResources()
+    }
+
+    private val layerPolicy = HardwareLayerPolicy()
+    // Map redraws itself while sheet moves so its layer would be rebuilt every frame anyway
+    private var mapLayerEnabled: Boolean = false
+    private var sheetLayerEnabled: Boolean = true
+
     var state: BottomSheetState
         get() = currentSheet?.getState() ?: BottomSheetState.STATE_HIDDEN
         set(newState) {
             currentSheet?.run { setState(newState) }
         }
 
+    /**
+     * Number of hardware layers built during the last finished drag or settle of the sheet
+     *
+     * @since 1.1.0
+     */
+    val lastGestureLayerCount: Int
+        get() = layerPolicy.lastGestureLayerCount
+
+    /**
+     * Number of status bar color updates during the last finished drag or settle of the sheet
+     *
+     * @since 1.1.0
+     */
+    var lastGestureStatusBarWriteCount: Int = 0
+        private set
+
+    /**
+     * Number of bytes released by memory trimming so far
+     *
+     * @since 1.1.0
+     */
+    var releasedBytes: Long = 0
+        private set
+
     /**
      * Attaches bottom sheet that can have two collapsed states. Sheet will automatically collapse
      * to nearest collapsed state when user swipes it.
@@ -45,7 +117,7 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
      * @param behaviour bottom sheet behaviour
      */
     fun init(view: View, behaviour: BottomSheet) {
-        initManually(view, behaviour, collapsedHeight, semiCollapsedHeight, semiCollapsedHeight)
+        initManually(view, behaviour, getTwoStatesHeights(), semiCollapsedHeight)
     }
 
     /**
@@ -92,15 +164,42 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
         semiCollapsedHeight: Int,
         initialHeight: Int
     ) {
+        initManually(view, behaviour, intArrayOf(collapsedHeight, semiCollapsedHeight), initialHeight)
+    }
+
+    /**
+     * Attaches any bottom sheet that can be collapsed to any of given heights.
+     *
+     * @param view          view in which is sheet
+     * @param behaviour     bottom sheet behaviour
+     * @param heights       heights of card when it is collapsed, in any order
+     * @param initialHeight initial height of card
+     * @since 1.1.0
+     */
+    fun initManually(
+        view: View,
+        behaviour: BottomSheet,
+        heights: IntArray,
+        initialHeight: Int
+    ) {
+        currentSheet?.removeBottomSheetCallback(sheetCallback)
+        layerPolicy.release()
+        cancelPendingPadding()
+        // Status bar and bottom items could be changed by someone else meanwhile
+        frame.invalidate()
+        darkStatusBarIconsApplied = false
         currentSheet = behaviour
         bottomSheetView = view
+        bottomItems = sheetsHelperView.getBottomItems()
 
-        this.collapsedHeight = collapsedHeight
-        this.semiCollapsedHeight = semiCollapsedHeight
+        val sorted = heights.sortedArray()
+        this.collapsedHeights = sorted
+        this.collapsedHeight = sorted.first()
+        this.semiCollapsedHeight = sorted.last()
 
-        behaviour.setPeekHeights(collapsedHeight, semiCollapsedHeight)
+        behaviour.setPeekHeights(sorted, true)
         behaviour.setInitialHeight(initialHeight)
-        behaviour.setBottomSheetCallback(getDefaultCallback())
+        behaviour.addBottomSheetCallback(sheetCallback)
 
         setMapPaddingAndTranslation()
     }
@@ -137,12 +236,9 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
     fun animateToTwoStates() {
         if (currentSheet != null) {
             // do not change anything when it is already set up - it could possibly break some animations
-            if (currentSheet!!.getPeekHeightCollapsed() != collapsedHeight || currentSheet!!.getPeekHeightSemiCollapsed() != semiCollapsedHeight) {
-                currentSheet!!.animateAndSetHeights(
-                    semiCollapsedHeight,
-                    collapsedHeight,
-                    semiCollapsedHeight
-                )
+            val heights = getTwoStatesHeights()
+            if (!currentSheet!!.getPeekHeights().contentEquals(heights)) {
+                currentSheet!!.animateAndSetHeights(semiCollapsedHeight, heights)
             }
 
             setMapPaddingAndTranslation()
@@ -164,14 +260,22 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
     fun restoreTwoStates() {
         if (currentSheet != null) {
             // do not change anything when it is already set up - it could possibly break some animations
-            if (currentSheet!!.getPeekHeightCollapsed() != collapsedHeight || currentSheet!!.getPeekHeightSemiCollapsed() != semiCollapsedHeight) {
-                currentSheet!!.setPeekHeights(collapsedHeight, semiCollapsedHeight, false)
+            val heights = getTwoStatesHeights()
+            if (!currentSheet!!.getPeekHeights().contentEquals(heights)) {
+                currentSheet!!.setPeekHeights(heights, false)
             }
 
             setMapPaddingAndTranslation()
         }
     }
 
+    /**
+     * @return all heights sheet can be collapsed to in two states mode sorted from the smallest one
+     */
+    private fun getTwoStatesHeights(): IntArray {
+        return collapsedHeights ?: intArrayOf(collapsedHeight, semiCollapsedHeight).apply { sort() }
+    }
+
     /**
      * Animates to [.semiCollapsedHeight] - in this state card be only collapsed to "big" state
      */
@@ -202,15 +306,31 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
     private fun onStateChanged(newState: BottomSheetState) {
         if (bottomSheetView != null) {
             sheetsHelperView.setMapGesturesEnabled(newState !== BottomSheetState.STATE_EXPANDED)
-            sheetsHelperView.setMapVisible(newState !== BottomSheetState.STATE_EXPANDED)
+            setMapShown(newState !== BottomSheetState.STATE_EXPANDED)
 
-            // Acceleration helps us get smoother animations
+            // Acceleration helps us get smoother animations, layers are kept until the sheet rests
             if (newState === BottomSheetState.STATE_DRAGGING || newState === BottomSheetState.STATE_SETTLING) {
-                sheetsHelperView.getMapContainer().setLayerType(View.LAYER_TYPE_HARDWARE, null)
-                bottomSheetView!!.setLayerType(View.LAYER_TYPE_HARDWARE, null)
+                if (mapLayerEnabled) {
+                    layerPolicy.layer(sheetsHelperView.getMapContainer())
+                }
+                if (sheetLayerEnabled) {
+                    layerPolicy.layer(bottomSheetView!!)
+                }
             } else {
-                sheetsHelperView.getMapContainer().setLayerType(View.LAYER_TYPE_NONE, null)
-                bottomSheetView!!.setLayerType(View.LAYER_TYPE_NONE, null)
+                layerPolicy.release()
+                lastGestureStatusBarWriteCount = statusBarWriteCount
+                statusBarWriteCount = 0
+
+                // Live map had the whole settle to render itself again
+                if (newState !== BottomSheetState.STATE_EXPANDED) {
+                    mapSnapshot.hide()
+                }
+
+                // Padding might have been throttled while sheet moved
+                if (mapPaddingPolicy.applyFinalOnSettle && ViewCompat.isLaidOut(bottomSheetView!!)) {
+                    setMapPaddingAndTranslation(bottomSheetView!!, collapsedHeight, semiCollapsedHeight, false)
+                    dispatchFrame()
+                }
             }
 
             if (currentSheet != null) {
@@ -219,6 +339,48 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
         }
     }
 
+    /**
+     * Hides or shows map according to [mapRetention]
+     *
+     * @param shown true when map should be shown
+     */
+    private fun setMapShown(shown: Boolean) {
+        if (shown == mapShown) {
+            return
+        }
+        mapShown = shown
+
+        val map = sheetsHelperView.getMapContainer()
+        when (mapRetention) {
+            MapRetention.REMOVE -> sheetsHelperView.setMapVisible(shown)
+            MapRetention.KEEP_INVISIBLE -> {
+                map.visibility = if (shown) View.VISIBLE else View.INVISIBLE
+                (sheetsHelperView as? MapRetentionView)?.setMapRenderingPaused(!shown)
+            }
+            MapRetention.SNAPSHOT -> {
+                if (shown) {
+                    // Snapshot covers the map until the sheet settles
+                    mapSnapshot.show(map)
+                } else {
+                    val retentionView = sheetsHelperView as? MapRetentionView
+                    mapSnapshot.capture(map) { retentionView?.drawMapSnapshot(it) ?: map.draw(it) }
+                }
+                sheetsHelperView.setMapVisible(shown)
+            }
+        }
+    }
+
+    /**
+     * Releases map snapshot and layers left from the last gesture, does nothing with layers while sheet moves
+     */
+    private fun releaseIdleResources() {
+        val state = currentSheet?.getState()
+        if (state !== BottomSheetState.STATE_DRAGGING && state !== BottomSheetState.STATE_SETTLING) {
+            layerPolicy.release()
+        }
+        releasedBytes += mapSnapshot.release()
+    }
+
     /**
      * Callback triggered when sheet slides, we react to it and change status bar properties
      *
@@ -227,41 +389,75 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
      */
     private fun onSheetSlide(bottomSheet: View, slideOffset: Float) {
         var slideOffset = slideOffset
-        setMapPaddingAndTranslation(bottomSheet, collapsedHeight, semiCollapsedHeight)
+        val state = currentSheet?.getState()
+        val moving = state === BottomSheetState.STATE_DRAGGING || state === BottomSheetState.STATE_SETTLING
+        setMapPaddingAndTranslation(bottomSheet, collapsedHeight, semiCollapsedHeight, moving)
 
         val nonExpanded = sheetsHelperView.getStatusBarColorDefault()
         val expanded = sheetsHelperView.getStatsBarColorExpanded()
         slideOffset = max(0f, slideOffset)
         if (slideOffset >= 0.9) {
-            sheetsHelperView.setStatusBarColor(
-                evaluateStatusBarColor(
-                    (slideOffset - 0.9).toFloat() * 10,
-                    nonExpanded,
-                    expanded
-                )
-            )
+            frame.setStatusBarColor(statusBarColors.colorAt((slideOffset - 0.9f) * 10, nonExpanded, expanded))
         } else if (slideOffset < 0.9) {
-            sheetsHelperView.setStatusBarColor(nonExpanded)
+            frame.setStatusBarColor(nonExpanded)
+        }
+        dispatchFrame()
+
+        // Icons switch at different offsets in each direction so they do not flicker around the threshold
+        val dark = if (darkStatusBarIcons) slideOffset >= DARK_ICONS_HIDE_OFFSET else slideOffset >= DARK_ICONS_SHOW_OFFSET
+        if (!darkStatusBarIconsApplied || dark != darkStatusBarIcons) {
+            darkStatusBarIcons = dark
+            darkStatusBarIconsApplied = true
+            sheetsHelperView.showDarkStatusBarIcons(dark)
+        }
+    }
+
+    /**
+     * Delivers changed values of [frame] to [sheetsHelperView], does nothing when nothing changed
+     */
+    private fun dispatchFrame() {
+        if (frame.changes == 0) {
+            return
+        }
+        if (frame.hasChanged(SheetFrame.CHANGED_STATUS_BAR_COLOR)) {
+            statusBarWriteCount++
         }
 
-        sheetsHelperView.showDarkStatusBarIcons(slideOffset >= 0.975)
+        if ((sheetsHelperView as? SheetFrameListener)?.onSheetFrame(frame) != true) {
+            if (frame.hasChanged(SheetFrame.CHANGED_MAP_PADDING)) {
+                sheetsHelperView.setMapPadding(
+                    frame.mapPaddingLeft,
+                    frame.mapPaddingTop,
+                    frame.mapPaddingRight,
+                    frame.mapPaddingBottom
+                )
+            }
+            if (frame.hasChanged(SheetFrame.CHANGED_MAP_TRANSLATION)) {
+                sheetsHelperView.getMapContainer().translationY = frame.mapTranslationY.toFloat()
+            }
+            if (frame.hasChanged(SheetFrame.CHANGED_BOTTOM_ITEMS)) {
+                val translationY = frame.bottomItemsTranslationY.toFloat()
+                for (view in bottomItems) {
+                    view.translationY = translationY
+                }
+            }
+            if (frame.hasChanged(SheetFrame.CHANGED_STATUS_BAR_COLOR)) {
+                sheetsHelperView.setStatusBarColor(frame.statusBarColor)
+            }
+        }
+        frame.commit()
     }
 
-    private fun evaluateStatusBarColor(fraction: Float, startInt: Int, endInt: Int): Int {
-        val startA = startInt shr 24 and 0xff
-        val startR = startInt shr 16 and 0xff
-        val startG = startInt shr 8 and 0xff
-        val startB = startInt and 0xff
-
-        val endA = endInt shr 24 and 0xff
-        val endR = endInt shr 16 and 0xff
-        val endG = endInt shr 8 and 0xff
-        val endB = endInt and 0xff
-
-        return startA + (fraction * (endA - startA)).toInt() shl 24 or (
-                startR + (fraction * (endR - startR)).toInt() shl 16) or (
-                startG + (fraction * (endG - startG)).toInt() shl 8) or
-                startB + (fraction * (endB - startB)).toInt()
+    /**
+     * Fetches views moving with the sheet again from [SheetsHelperView.getBottomItems] and moves them
+     * to current position.
+     *
+     * @since 1.1.0
+     */
+    fun refreshBottomItems() {
+        bottomItems = sheetsHelperView.getBottomItems()
+        frame.invalidate()
+        setMapPaddingAndTranslation()
     }
 
     /**
@@ -271,45 +467,88 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
         if (currentSheet != null && bottomSheetView != null) {
             // View has not gone through full layout cycle, wait till this one is done
             if (!ViewCompat.isLaidOut(bottomSheetView!!)) {
-                // Adding onLayoutChangedListener does not work properly cause Sheet reacts after view is laid out
-                bottomSheetView!!.postDelayed({ this.setMapPaddingAndTranslation() }, 75)
+                // Adding onLayoutChangedListener does not work properly cause Sheet reacts after view is laid out,
+                // padding is applied right before the first frame with laid out sheet is drawn instead
+                if (paddingPendingView == null) {
+                    paddingPendingView = bottomSheetView
+                    bottomSheetView!!.viewTreeObserver.addOnPreDrawListener(paddingPreDrawListener)
+                }
             } else {
-                setMapPaddingAndTranslation(bottomSheetView!!, collapsedHeight, semiCollapsedHeight)
+                cancelPendingPadding()
+                setMapPaddingAndTranslation(bottomSheetView!!, collapsedHeight, semiCollapsedHeight, false)
+                dispatchFrame()
+            }
+        }
+    }
+
+    private fun cancelPendingPadding() {
+        paddingPendingView?.let {
+            // Observer of view not attached yet is merged into window one on attach, current one is always alive
+            val observer = it.viewTreeObserver
+            if (observer.isAlive) {
+                observer.removeOnPreDrawListener(paddingPreDrawListener)
             }
         }
+        paddingPendingView = null
+    }
+
+    /**
+     * Detaches helper from current sheet and cancels all pending work. Call when view with the sheet is
+     * destroyed.
+     *
+     * @since 1.1.0
+     */
+    fun destroy() {
+        currentSheet?.removeBottomSheetCallback(sheetCallback)
+        layerPolicy.release()
+        cancelPendingPadding()
+        currentSheet = null
+        bottomSheetView = null
+        bottomItems = NO_BOTTOM_ITEMS
+
+        mapSnapshot.release()
+        TrimMemoryRegistry.unregister(trimMemoryClient)
     }
 
     /**
      * Updates padding and translation to map so every marker in map will be visible
-     * This also adds translation to view --> parallax effect
+     * This also adds translation to view --> parallax effect. Values are only written to [frame],
+     * call [dispatchFrame] to deliver them.
      *
      * @param bottomSheet     current bottom sheet
      * @param collapsedHeight height of bottom sheet when it is collapsed
      * @param maxMapPadding   max padding + translation, when this value is reached then sheet will just continue overlapping the map
+     * @param throttled       true when padding update may be skipped according to [mapPaddingPolicy]
      */
     private fun setMapPaddingAndTranslation(
         bottomSheet: View,
         collapsedHeight: Int,
-        maxMapPadding: Int
+        maxMapPadding: Int,
+        throttled: Boolean
     ) {
-        val calculatedPadding = bottomSheet.height - bottomSheet.top
+        // Sheet may be moved by its translation, see BottomSheetTwoStatesBehavior.setPositionByTranslation
+        val calculatedPadding = bottomSheet.height - (bottomSheet.top + bottomSheet.translationY.roundToInt())
         val realPadding = min(calculatedPadding, maxMapPadding)
 
         val translationY = min(0, -(realPadding - collapsedHeight) / 2)
         val paddingTop = max(0, mapTopPadding - translationY)
         val paddingBot = max(0, realPadding + translationY)
 
-        sheetsHelperView.setMapPadding(
-            mapLogoPaddingLeft,
-            paddingTop,
-            0,
-            paddingBot + mapLogoPaddingBottom
-        )
-        sheetsHelperView.getMapContainer().translationY = translationY.toFloat()
-
-        for (view in sheetsHelperView.getBottomItems()) {
-            view.translationY = (-realPadding).toFloat()
+        val now = AnimationUtils.currentAnimationTimeMillis()
+        val paddingDelta = max(abs(paddingTop - frame.mapPaddingTop), abs(paddingBot + mapLogoPaddingBottom - frame.mapPaddingBottom))
+        if (!throttled || mapPaddingPolicy.shouldUpdate(paddingDelta, now - mapPaddingUpdateTime)) {
+            frame.setMapPadding(
+                mapLogoPaddingLeft,
+                paddingTop,
+                0,
+                paddingBot + mapLogoPaddingBottom
+            )
+            if (frame.hasChanged(SheetFrame.CHANGED_MAP_PADDING)) {
+                mapPaddingUpdateTime = now
+            }
         }
+        frame.setMapTranslationY(translationY)
+        frame.setBottomItemsTranslationY(-realPadding)
     }
 
     /**
@@ -344,6 +583,7 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
 
             setGoogleLogoPadding(logoPaddingLeft, logoPaddingBottom)
             setMapTopPadding(context.getStatusBarHeight() + context.getToolbarHeight())
+            TrimMemoryRegistry.register(context, sheetsHelper.trimMemoryClient)
         }
 
         /**
@@ -368,6 +608,7 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
          */
         fun setCollapsedHeight(heightPx: Int): Builder {
             sheetsHelper.collapsedHeight = heightPx
+            sheetsHelper.collapsedHeights = null
             return this
         }
 
@@ -379,6 +620,74 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
          */
         fun setSemiCollapsedHeight(heightPx: Int): Builder {
             sheetsHelper.semiCollapsedHeight = heightPx
+            sheetsHelper.collapsedHeights = null
+            return this
+        }
+
+        /**
+         * Sets all heights of sheet when it is collapsed, replaces collapsed and semi collapsed heights
+         * with the smallest and the biggest one
+         *
+         * @param heightsPx heights in px, in any order
+         * @return builder
+         * @since 1.1.0
+         */
+        fun setCollapsedHeights(vararg heightsPx: Int): Builder {
+            require(heightsPx.isNotEmpty()) { "At least one height is required" }
+            val sorted = heightsPx.sortedArray()
+            sheetsHelper.collapsedHeights = sorted
+            sheetsHelper.collapsedHeight = sorted.first()
+            sheetsHelper.semiCollapsedHeight = sorted.last()
+            return this
+        }
+
+        /**
+         * Sets if map container should get a hardware layer while sheet moves. Disabled by default
+         * because live map content invalidates the layer on every frame.
+         *
+         * @param enabled true to layer map container
+         * @return builder
+         * @since 1.1.0
+         */
+        fun setMapHardwareLayerEnabled(enabled: Boolean): Builder {
+            sheetsHelper.mapLayerEnabled = enabled
+            return this
+        }
+
+        /**
+         * Sets if sheet should get a hardware layer while it moves. Enabled by default, disable it when
+         * content of the sheet changes while it moves.
+         *
+         * @param enabled true to layer sheet
+         * @return builder
+         * @since 1.1.0
+         */
+        fun setSheetHardwareLayerEnabled(enabled: Boolean): Builder {
+            sheetsHelper.sheetLayerEnabled = enabled
+            return this
+        }
+
+        /**
+         * Sets how often map padding is updated while sheet moves, by default it is updated on every frame
+         *
+         * @param policy update policy
+         * @return builder
+         * @since 1.1.0
+         */
+        fun setMapPaddingPolicy(policy: MapPaddingPolicy): Builder {
+            sheetsHelper.mapPaddingPolicy = policy
+            return this
+        }
+
+        /**
+         * Sets what happens with the map while sheet is expanded, by default it is removed
+         *
+         * @param retention retention strategy
+         * @return builder
+         * @since 1.1.0
+         */
+        fun setMapRetention(retention: MapRetention): Builder {
+            sheetsHelper.mapRetention = retention
             return this
         }
 
@@ -400,5 +709,8 @@ class SheetsHelper private constructor(private val sheetsHelperView: SheetsHelpe
 
     companion object {
         private const val SLIDE_OFFSET_SHEET_EXPANDED = 1f
+        private const val DARK_ICONS_SHOW_OFFSET = 0.975f
+        private const val DARK_ICONS_HIDE_OFFSET = 0.95f
+        private val NO_BOTTOM_ITEMS = emptyArray<View>()
     }
 }
\ No newline at end of file
@@ -17,6 +17,9 @@ interface SheetsHelperView {
     fun getMapContainer(): ViewGroup
 
     /**
+     * Views are fetched once when sheet is attached to [SheetsHelper], call [SheetsHelper.refreshBottomItems]
+     * when they change.
+     *
      * @return instances of views that should move with card (zoom button, refresh button, ...) and are placed above it
      */
     fun getBottomItems(): Array<View>
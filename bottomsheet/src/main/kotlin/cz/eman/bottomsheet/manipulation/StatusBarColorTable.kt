@@ -0,0 +1,65 @@
+package cz.eman.bottomsheet.manipulation
+
+import androidx.annotation.ColorInt
+import kotlin.math.roundToInt
+
+/**
+ * Precomputed colors between two status bar colors. Fraction of the transition is quantized to
+ * [STEPS] steps, so colors are interpolated only when one of the end colors changes and consecutive
+ * slide events mostly resolve to the same color.
+ *
+ * @author eMan s.r.o.
+ * @since 1.1.0
+ */
+internal class StatusBarColorTable {
+
+    private val colors = IntArray(STEPS + 1)
+    private var startColor: Int = 0
+    private var endColor: Int = 0
+    private var built = false
+
+    /**
+     * @param fraction fraction of the transition from 0 to 1
+     * @param start    color at the start of the transition
+     * @param end      color at the end of the transition
+     * @return quantized color for given fraction
+     */
+    @ColorInt
+    fun colorAt(fraction: Float, @ColorInt start: Int, @ColorInt end: Int): Int {
+        if (!built || start != startColor || end != endColor) {
+            build(start, end)
+        }
+        return colors[(fraction.coerceIn(0f, 1f) * STEPS).roundToInt()]
+    }
+
+    private fun build(start: Int, end: Int) {
+        for (i in 0..STEPS) {
+            colors[i] = evaluate(i.toFloat() / STEPS, start, end)
+        }
+        startColor = start
+        endColor = end
+        built = true
+    }
+
+    private fun evaluate(fraction: Float, startInt: Int, endInt: Int): Int {
+        val startA = startInt shr 24 and 0xff
+        val startR = startInt shr 16 and 0xff
+        val startG = startInt shr 8 and 0xff
+        val startB = startInt and 0xff
+
+        val endA = endInt shr 24 and 0xff
+        val endR = endInt shr 16 and 0xff
+        val endG = endInt shr 8 and 0xff
+        val endB = endInt and 0xff
+
+        return startA + (fraction * (endA - startA)).toInt() shl 24 or (
+                startR + (fraction * (endR - startR)).toInt() shl 16) or (
+                startG + (fraction * (endG - startG)).toInt() shl 8) or
+                startB + (fraction * (endB - startB)).toInt()
+    }
+
+    companion object {
+        // Transition runs over a tenth of the sheet travel, finer steps would not be visible
+        private const val STEPS = 32
+    }
+}
@@ -6,6 +6,7 @@ import android.os.Build
 import androidx.annotation.ColorInt
 import android.view.View
 import android.view.ViewGroup
+import android.view.WindowInsetsController
 import androidx.core.view.NestedScrollingChild
 
 fun Context.getStatusBarHeight(): Int {
@@ -20,17 +21,31 @@ fun Context.getToolbarHeight(): Int {
 }
 
 /**
- * Will tint icons of action bar to dark or light color
+ * Will tint icons of action bar to dark or light color. Window is touched only when the appearance
+ * actually changes.
  *
  * @param show true when dark icons should be shown
  */
 fun Activity.setDarkStatusBarIcons(show: Boolean) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+        this.window.insetsController?.run {
+            val appearance = if (show) WindowInsetsController.APPEARANCE_LIGHT_STATUS_BARS else 0
+            if (systemBarsAppearance and WindowInsetsController.APPEARANCE_LIGHT_STATUS_BARS != appearance) {
+                setSystemBarsAppearance(appearance, WindowInsetsController.APPEARANCE_LIGHT_STATUS_BARS)
+            }
+        }
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        @Suppress("DEPRECATION")
         val visibility = this.window.decorView.systemUiVisibility
-        if (show) {
-            this.window.decorView.systemUiVisibility = visibility or View.SYSTEM_UI_FLAG_LIGHT_STATUS_BAR
+        @Suppress("DEPRECATION")
+        val newVisibility = if (show) {
+            visibility or View.SYSTEM_UI_FLAG_LIGHT_STATUS_BAR
         } else {
-            this.window.decorView.systemUiVisibility = visibility and View.SYSTEM_UI_FLAG_LIGHT_STATUS_BAR.inv()
+            visibility and View.SYSTEM_UI_FLAG_LIGHT_STATUS_BAR.inv()
+        }
+        if (newVisibility != visibility) {
+            @Suppress("DEPRECATION")
+            this.window.decorView.systemUiVisibility = newVisibility
         }
     }
 }
@@ -73,4 +88,18 @@ fun View.findFirstScrollingChild(): View? {
         }
     }
     return null
-}
\ No newline at end of file
+}
+
+/**
+ * Returns true when this view is given view or lies in its hierarchy
+ */
+internal fun View.isDescendantOf(ancestor: View): Boolean {
+    var view: View? = this
+    while (view != null) {
+        if (view === ancestor) {
+            return true
+        }
+        view = view.parent as? View
+    }
+    return false
+}
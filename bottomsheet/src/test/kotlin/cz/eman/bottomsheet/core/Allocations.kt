@@ -0,0 +1,49 @@
+package cz.eman.bottomsheet.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import java.lang.management.ManagementFactory
+
+/**
+ * Counts bytes allocated by the current thread, used to check that code running on every frame or touch
+ * event does not allocate.
+ *
+ * @author eMan s.r.o.
+ */
+internal object Allocations {
+
+    private const val WARM_UP_RUNS = 10_000
+    private const val MEASURED_RUNS = 5
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    /**
+     * Fails when given block allocates. Block is run many times first, so classes are loaded and lazy state
+     * is created before measuring. Test is skipped on VMs which cannot count allocated bytes.
+     *
+     * @param message message of the failure
+     * @param block   code which must not allocate
+     */
+    fun assertNoAllocations(message: String, block: () -> Unit) {
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported)
+        threadBean.isThreadAllocatedMemoryEnabled = true
+
+        repeat(WARM_UP_RUNS) { block() }
+
+        // Smallest of several runs, so a one-off allocation of the VM itself does not fail the test
+        var allocated = Long.MAX_VALUE
+        repeat(MEASURED_RUNS) {
+            allocated = minOf(allocated, (measure(block) - measure(emptyBlock)).coerceAtLeast(0L))
+        }
+        assertEquals(message, 0L, allocated)
+    }
+
+    private fun measure(block: () -> Unit): Long {
+        val threadId = Thread.currentThread().id
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        block()
+        return threadBean.getThreadAllocatedBytes(threadId) - before
+    }
+
+    private val emptyBlock: () -> Unit = {}
+}
@@ -0,0 +1,58 @@
+package cz.eman.bottomsheet.core
+
+import cz.eman.bottomsheet.core.Allocations.assertNoAllocations
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * @author eMan s.r.o.
+ */
+class DetentIndexTest {
+
+    private val heights = intArrayOf(200, 600)
+    private val index = DetentIndex()
+
+    @Before
+    fun setUp() {
+        index.update(MIN_OFFSET, PARENT_HEIGHT, heights)
+    }
+
+    @Test
+    fun resolvesDetentsAroundGivenTop() {
+        assertEquals(3, index.size)
+        assertEquals(MIN_OFFSET, index[0])
+        assertEquals(400, index[1])
+        assertEquals(800, index[2])
+
+        assertEquals(400, index.floor(500))
+        assertEquals(800, index.ceiling(500))
+        assertEquals(400, index.nearest(500))
+        assertEquals(800, index.nearest(700))
+        assertEquals(400, index.nearestCollapsed(MIN_OFFSET))
+    }
+
+    @Test
+    fun releaseDoesNotAllocate() {
+        assertNoAllocations("Resolving detent of released sheet allocates") {
+            for (top in MIN_OFFSET..PARENT_HEIGHT) {
+                index.floor(top)
+                index.ceiling(top)
+                index.nearest(top)
+                index.nearestCollapsed(top)
+            }
+        }
+    }
+
+    @Test
+    fun layoutWithSameDetentCountDoesNotAllocate() {
+        assertNoAllocations("Layout of sheet with unchanged detent count allocates") {
+            index.update(MIN_OFFSET, PARENT_HEIGHT, heights)
+        }
+    }
+
+    companion object {
+        private const val MIN_OFFSET = 100
+        private const val PARENT_HEIGHT = 1000
+    }
+}
@@ -0,0 +1,76 @@
+package cz.eman.bottomsheet.core
+
+import cz.eman.bottomsheet.core.Allocations.assertNoAllocations
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Runs released sheet through whole settle of every [SettleEngine], the same way the settle animation of
+ * the behavior advances it once per frame.
+ *
+ * @author eMan s.r.o.
+ */
+class SettleEngineTest {
+
+    @Test
+    fun scrollerSettlesAtFinalPosition() {
+        assertSettlesAtFinalPosition(ScrollerSettleEngine())
+    }
+
+    @Test
+    fun springSettlesAtFinalPosition() {
+        assertSettlesAtFinalPosition(SpringSettleEngine())
+    }
+
+    @Test
+    fun scrollerSettleDoesNotAllocate() {
+        val engine = ScrollerSettleEngine()
+        assertNoAllocations("Settle of ScrollerSettleEngine allocates") { settle(engine) }
+    }
+
+    @Test
+    fun springSettleDoesNotAllocate() {
+        val engine = SpringSettleEngine()
+        assertNoAllocations("Settle of SpringSettleEngine allocates") { settle(engine) }
+    }
+
+    private fun assertSettlesAtFinalPosition(engine: SettleEngine) {
+        val frames = settle(engine)
+        assertTrue(frames in 1 until MAX_FRAMES)
+        assertFalse(engine.computePosition(Long.MAX_VALUE))
+        assertEquals(COLLAPSED_TOP, engine.position)
+    }
+
+    /**
+     * Releases sheet towards expanded position, retargets it to collapsed one halfway and advances the
+     * engine until it stops.
+     *
+     * @return number of frames the settle took
+     */
+    private fun settle(engine: SettleEngine): Int {
+        engine.start(START_TOP, EXPANDED_TOP, RELEASE_VELOCITY, DURATION_MS, 0L)
+        var frames = 0
+        var frameTime = 0L
+        do {
+            frameTime += FRAME_INTERVAL_NANOS
+            if (++frames == RETARGET_FRAME) {
+                engine.retarget(COLLAPSED_TOP, frameTime)
+            }
+        } while (engine.computePosition(frameTime) && frames < MAX_FRAMES)
+        return frames
+    }
+
+    companion object {
+        private const val EXPANDED_TOP = 100
+        private const val START_TOP = 500
+        private const val COLLAPSED_TOP = 800
+        private const val RELEASE_VELOCITY = -2000f // px/s
+        private const val DURATION_MS = 256
+
+        private const val FRAME_INTERVAL_NANOS = 16_666_667L
+        private const val RETARGET_FRAME = 5
+        private const val MAX_FRAMES = 600
+    }
+}
@@ -0,0 +1,89 @@
+package cz.eman.bottomsheet.core
+
+import android.view.Choreographer
+import cz.eman.bottomsheet.core.Allocations.assertNoAllocations
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * @author eMan s.r.o.
+ */
+class SettleFrameDriverTest {
+
+    private lateinit var originalScheduler: (Choreographer.FrameCallback) -> Unit
+    private var scheduledFrames = 0
+
+    private val scheduler: (Choreographer.FrameCallback) -> Unit = { scheduledFrames++ }
+
+    @Before
+    fun setUp() {
+        originalScheduler = SettleFrameDriver.frameScheduler
+        SettleFrameDriver.frameScheduler = scheduler
+    }
+
+    @After
+    fun tearDown() {
+        SettleFrameDriver.frameScheduler = originalScheduler
+    }
+
+    @Test
+    fun advancesClientsUntilTheyAreDone() {
+        val first = EngineClient(SpringSettleEngine())
+        val second = EngineClient(ScrollerSettleEngine())
+        first.start()
+        second.start()
+
+        SettleFrameDriver.add(first)
+        SettleFrameDriver.add(second)
+        SettleFrameDriver.add(first)
+        runFrames()
+
+        assertEquals(FINAL_TOP, first.engine.position)
+        assertEquals(FINAL_TOP, second.engine.position)
+        // Driver stops scheduling frames once all clients are done
+        assertEquals(0, scheduledFrames)
+    }
+
+    @Test
+    fun settleDoesNotAllocate() {
+        val client = EngineClient(SpringSettleEngine())
+        assertNoAllocations("Settle driven by SettleFrameDriver allocates") {
+            client.start()
+            SettleFrameDriver.add(client)
+            runFrames()
+        }
+    }
+
+    /**
+     * Runs frames the same way [Choreographer] would while the driver keeps scheduling them.
+     */
+    private fun runFrames() {
+        var frameTime = 0L
+        var frames = 0
+        while (scheduledFrames > 0 && frames++ < MAX_FRAMES) {
+            scheduledFrames--
+            frameTime += FRAME_INTERVAL_NANOS
+            SettleFrameDriver.doFrame(frameTime)
+        }
+    }
+
+    private class EngineClient(val engine: SettleEngine) : SettleFrameDriver.Client {
+
+        fun start() {
+            engine.start(START_TOP, FINAL_TOP, 0f, DURATION_MS, 0L)
+        }
+
+        override fun doFrame(frameTimeNanos: Long): Boolean = engine.computePosition(frameTimeNanos)
+    }
+
+    companion object {
+        private const val START_TOP = 800
+        private const val FINAL_TOP = 100
+        private const val DURATION_MS = 256
+
+        private const val FRAME_INTERVAL_NANOS = 16_666_667L
+        private const val MAX_FRAMES = 600
+    }
+}
@@ -20,7 +20,8 @@ object Versions {
 
     const val espresso = "3.0.1"
     const val junit = "4.12"
-    const val testRunner = "1.0.1"
+    const val testRunner = "1.2.0"
+    const val testExtJunit = "1.1.1"
 
     const val mavenPublish = "3.6.2"
     const val mavenGradleGithub = "1.5"
@@ -30,7 +31,7 @@ object Versions {
 object Android {
     const val minSdk = 21
     const val targetSdk = 29
-    const val compileSdk = 29
+    const val compileSdk = 30
 
     const val versionCode = 1
     const val versionName = "1"
@@ -68,5 +69,7 @@ object Dependencies {
 
     object Test {
         const val junit = "junit:junit:${Versions.junit}"
+        const val runner = "androidx.test:runner:${Versions.testRunner}"
+        const val extJunit = "androidx.test.ext:junit:${Versions.testExtJunit}"
     }
 }
\ No newline at end of file